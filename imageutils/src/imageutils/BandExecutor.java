@@ -0,0 +1,129 @@
+package imageutils;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class BandExecutor {
+
+    interface Band {
+        void run(int fromY, int toY);
+    }
+
+    // Images below this size are not worth the fork/join overhead
+    private static final int MIN_PARALLEL_PIXELS = 1 << 16;
+    private static final int BAND_PIXELS = 1 << 15;
+
+    private static int parallelism = Integer.getInteger("imageutils.parallelism", Runtime.getRuntime().availableProcessors());
+    private static ForkJoinPool pool;
+    // Calls inside invoke per pool, so a pool replaced by setParallelism is shut down only once the last of
+    // them returns and not under a caller that has just been handed it
+    private static final Map<ForkJoinPool, Integer> users = new IdentityHashMap<>();
+
+    private BandExecutor() {
+    }
+
+    public static synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    // 1 runs every filter sequentially on the calling thread
+    static synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        if (parallelism != BandExecutor.parallelism && pool != null) {
+            if (!users.containsKey(pool)) {
+                pool.shutdown();
+            }
+            pool = null;
+        }
+        BandExecutor.parallelism = parallelism;
+    }
+
+    private static synchronized ForkJoinPool acquire() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        users.merge(pool, 1, Integer::sum);
+        return pool;
+    }
+
+    private static synchronized void release(ForkJoinPool used) {
+        if (users.merge(used, -1, Integer::sum) == 0) {
+            users.remove(used);
+            if (used != pool) {
+                used.shutdown();
+            }
+        }
+    }
+
+    static void forEachBand(int width, int height, Band band) {
+        forEachBand(width, height, 1, band);
+    }
+
+    // minBandRows keeps bands tall enough to amortize per-band setup such as sliding window warm-up.
+    // The caller's CancellationToken is checked before every band and is current while a band runs,
+    // finished bands are reported to the caller's ProgressTracker.
+    static void forEachBand(int width, int height, int minBandRows, Band work) {
+        CancellationToken token = CancellationToken.current();
+        ProgressTracker progress = ProgressTracker.current();
+        progress.beginPass(height);
+        Band band = progress == ProgressTracker.NONE ? work : (fromY, toY) -> {
+            work.run(fromY, toY);
+            progress.bandDone(fromY, toY);
+        };
+        int bandRows = bandRows(width, minBandRows);
+
+        if (getParallelism() == 1 || (long) width * height < MIN_PARALLEL_PIXELS) {
+            for (int y = 0; y < height; y += bandRows) {
+                token.throwIfCancelled();
+                band.run(y, Math.min(height, y + bandRows));
+            }
+            return;
+        }
+
+        ForkJoinPool used = acquire();
+        try {
+            used.invoke(new BandTask(band, token, 0, height, bandRows));
+        } finally {
+            release(used);
+        }
+    }
+
+    // Bands start at multiples of this, whether they run sequentially or in the pool
+    static int bandRows(int width, int minBandRows) {
+        return Math.max(minBandRows, BAND_PIXELS / Math.max(1, width));
+    }
+
+    private static final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Band band;
+        private final CancellationToken token;
+        private final int fromY;
+        private final int toY;
+        private final int bandRows;
+
+        BandTask(Band band, CancellationToken token, int fromY, int toY, int bandRows) {
+            this.band = band;
+            this.token = token;
+            this.fromY = fromY;
+            this.toY = toY;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            token.throwIfCancelled();
+            if (toY - fromY <= bandRows) {
+                token.run(() -> band.run(fromY, toY));
+                return;
+            }
+            int bands = (toY - fromY + bandRows - 1) / bandRows;
+            int middle = fromY + bands / 2 * bandRows;
+            invokeAll(new BandTask(band, token, fromY, middle, bandRows), new BandTask(band, token, middle, toY, bandRows));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package imageutils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// Small average-time harness in the spirit of JMH: untimed per-invocation setup, warmup and measured
+// iterations, and results written in JMH's JSON layout so the usual JMH tooling can read them.
+public final class BenchmarkRunner {
+
+    public interface Invocation {
+        void run() throws Exception;
+    }
+
+    // Called before every invocation outside the timed region, like @Setup(Level.Invocation)
+    public interface Setup {
+        Invocation prepare() throws Exception;
+    }
+
+    private static final class Result {
+        final String benchmark;
+        final Map<String, String> params;
+        final double[] samples;
+
+        Result(String benchmark, Map<String, String> params, double[] samples) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.samples = samples;
+        }
+    }
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final Pattern filter;
+    private final List<Result> results = new ArrayList<>();
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, String filter) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.filter = Pattern.compile(filter);
+    }
+
+    public static Map<String, String> params(String... keysAndValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return params;
+    }
+
+    public boolean accepts(String benchmark, Map<String, String> params) {
+        return filter.matcher(benchmark + params).find();
+    }
+
+    public void run(String benchmark, Map<String, String> params, Setup setup) throws Exception {
+        if (!accepts(benchmark, params)) {
+            return;
+        }
+
+        for (int i = 0; i < warmupIterations; i++) {
+            time(setup);
+        }
+        double[] samples = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            samples[i] = time(setup);
+        }
+
+        Result result = new Result(benchmark, params, samples);
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-40s %-45s %10.3f +- %8.3f ms/op%n",
+                benchmark, params, mean(samples), error(samples));
+    }
+
+    private static double time(Setup setup) throws Exception {
+        Invocation invocation = setup.prepare();
+        long start = System.nanoTime();
+        invocation.run();
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static double mean(double[] samples) {
+        double sum = 0;
+        for (double sample : samples) {
+            sum += sample;
+        }
+        return sum / samples.length;
+    }
+
+    // Half width of a 99.9% confidence interval (normal approximation), JMH reports the same quantity
+    private static double error(double[] samples) {
+        if (samples.length < 2) {
+            return Double.NaN;
+        }
+        double mean = mean(samples);
+        double squares = 0;
+        for (double sample : samples) {
+            squares += (sample - mean) * (sample - mean);
+        }
+        return 3.291 * Math.sqrt(squares / (samples.length - 1)) / Math.sqrt(samples.length);
+    }
+
+    public void writeJson(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                out.write("  {\n");
+                out.write("    \"benchmark\" : " + quote(result.benchmark) + ",\n");
+                out.write("    \"mode\" : \"avgt\",\n");
+                out.write("    \"warmupIterations\" : " + warmupIterations + ",\n");
+                out.write("    \"measurementIterations\" : " + measurementIterations + ",\n");
+                out.write("    \"params\" : {");
+                int param = 0;
+                for (Map.Entry<String, String> entry : result.params.entrySet()) {
+                    out.write((param++ == 0 ? " " : ", ") + quote(entry.getKey()) + " : " + quote(entry.getValue()));
+                }
+                out.write(" },\n");
+                out.write("    \"primaryMetric\" : {\n");
+                out.write("      \"score\" : " + number(mean(result.samples)) + ",\n");
+                out.write("      \"scoreError\" : " + number(error(result.samples)) + ",\n");
+                out.write("      \"scoreUnit\" : \"ms/op\",\n");
+                out.write("      \"rawData\" : [ [");
+                for (int s = 0; s < result.samples.length; s++) {
+                    out.write((s == 0 ? " " : ", ") + number(result.samples[s]));
+                }
+                out.write(" ] ]\n");
+                out.write("    }\n");
+                out.write(i == results.size() - 1 ? "  }\n" : "  },\n");
+            }
+            out.write("]\n");
+        }
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
@@ -0,0 +1,173 @@
+package imageutils;
+
+public final class BoxBlur {
+
+    private BoxBlur() {
+    }
+
+    // Averages every pixel over the (2 * radius + 1)^2 box clipped to the image, like the old 3x3 loop did.
+    // Window sums are exact, so the result is the same as summing the box directly. Each band slides a window
+    // of 2 * radius + 1 rows of horizontal sums down its rows, summing a row just before the window reaches it,
+    // so the extra memory is that window per running band instead of sums for the whole image.
+    // source and target may be the same buffer: a band reads each of its own rows before it writes it, and the
+    // rows it needs from the neighbouring bands are summed up front, radius rows either side of every boundary.
+    public static void blur(PixelBuffer source, PixelBuffer target, int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("radius must not be negative: " + radius);
+        }
+        int width = source.width;
+        int height = source.height;
+        if (width == 0 || height == 0) {
+            return;
+        }
+        if (255L * Math.min(2L * radius + 1, width) * Math.min(2L * radius + 1, height) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("radius too large for a " + width + "x" + height + " image: " + radius);
+        }
+
+        int minBandRows = 8 * (2 * radius + 1);
+        int bandRows = BandExecutor.bandRows(width, minBandRows);
+        Halo halo = source.pixels == target.pixels && radius > 0 ? new Halo(source, radius, bandRows) : null;
+
+        BandExecutor.forEachBand(width, height, minBandRows, (fromY, toY) ->
+                blurBand(source, target, halo, radius, fromY, toY));
+    }
+
+    // Horizontal sums of the rows within radius of each band boundary, taken before any band writes them
+    private static final class Halo {
+        final int radius;
+        final int bandRows;
+        final int width;
+        final int[] red;
+        final int[] green;
+        final int[] blue;
+
+        Halo(PixelBuffer source, int radius, int bandRows) {
+            this.radius = radius;
+            this.bandRows = bandRows;
+            this.width = source.width;
+            int height = source.height;
+            int boundaries = (height - 1) / bandRows;
+            red = new int[boundaries * 2 * radius * width];
+            green = new int[red.length];
+            blue = new int[red.length];
+
+            // Small next to the blur itself, and not worth reporting as a pass of its own
+            ProgressTracker.NONE.run(() -> BandExecutor.forEachBand(2 * radius * width, boundaries, (from, to) -> {
+                for (int boundary = from; boundary < to; boundary++) {
+                    int firstY = (boundary + 1) * bandRows - radius;
+                    for (int y = firstY; y < Math.min(height, firstY + 2 * radius); y++) {
+                        sumRow(source, y, radius, red, green, blue, offset(y));
+                    }
+                }
+            }));
+        }
+
+        // Where the sums of row y start; y must lie within radius of a boundary
+        int offset(int y) {
+            int boundary = (y + radius) / bandRows;
+            return ((boundary - 1) * 2 * radius + y - (boundary * bandRows - radius)) * width;
+        }
+    }
+
+    private static void blurBand(PixelBuffer source, PixelBuffer target, Halo halo, int radius, int fromY, int toY) {
+        int width = target.width;
+        int height = target.height;
+        int[] pixels = target.pixels;
+        int window = 2 * radius + 1;
+        CancellationToken token = CancellationToken.current();
+
+        int[] columnWidth = new int[width];
+        for (int x = 0; x < width; x++) {
+            columnWidth[x] = Math.min(width, x + radius + 1) - Math.max(0, x - radius);
+        }
+
+        // Row y of the window is kept at (y % window) * width
+        int[] red = new int[window * width];
+        int[] green = new int[window * width];
+        int[] blue = new int[window * width];
+        int[] sumRed = new int[width];
+        int[] sumGreen = new int[width];
+        int[] sumBlue = new int[width];
+        for (int y = Math.max(0, fromY - radius); y < Math.min(height, fromY + radius + 1); y++) {
+            load(source, halo, radius, fromY, toY, y, red, green, blue, y % window * width);
+            addRow(red, green, blue, y % window * width, sumRed, sumGreen, sumBlue, width, 1);
+        }
+
+        for (int y = fromY; y < toY; y++) {
+            // Bands of a large radius blur are tall, so check for cancellation on every row
+            token.throwIfCancelled();
+            int rows = Math.min(height, y + radius + 1) - Math.max(0, y - radius);
+            int row = target.offset + y * target.stride;
+            for (int x = 0; x < width; x++) {
+                int count = rows * columnWidth[x];
+                int pixel = 0xFF000000 | ((sumRed[x] / count) << 16) | ((sumGreen[x] / count) << 8) | (sumBlue[x] / count);
+                pixels[row + x] = pixel & target.writeMask;
+            }
+
+            // The row leaving the window and the one entering it share a slot; after the band's last row
+            // nothing enters, which keeps the rows read from below within the halo
+            if (y - radius >= 0) {
+                addRow(red, green, blue, (y - radius) % window * width, sumRed, sumGreen, sumBlue, width, -1);
+            }
+            int next = y + radius + 1;
+            if (next < height && y + 1 < toY) {
+                load(source, halo, radius, fromY, toY, next, red, green, blue, next % window * width);
+                addRow(red, green, blue, next % window * width, sumRed, sumGreen, sumBlue, width, 1);
+            }
+        }
+    }
+
+    // The horizontal sums of row y, from the halo when another band may already have written the row
+    private static void load(PixelBuffer source, Halo halo, int radius, int fromY, int toY, int y,
+                             int[] red, int[] green, int[] blue, int at) {
+        if (halo != null && (y < fromY || y >= toY)) {
+            int from = halo.offset(y);
+            System.arraycopy(halo.red, from, red, at, halo.width);
+            System.arraycopy(halo.green, from, green, at, halo.width);
+            System.arraycopy(halo.blue, from, blue, at, halo.width);
+        } else {
+            sumRow(source, y, radius, red, green, blue, at);
+        }
+    }
+
+    // Sums every channel of row y over the window [x - radius, x + radius] clipped to the row
+    private static void sumRow(PixelBuffer source, int y, int radius, int[] red, int[] green, int[] blue, int at) {
+        int width = source.width;
+        int[] pixels = source.pixels;
+        int row = source.offset + y * source.stride;
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        for (int x = 0; x < Math.min(width, radius); x++) {
+            int pixel = pixels[row + x];
+            r += (pixel >> 16) & 0xFF;
+            g += (pixel >> 8) & 0xFF;
+            b += pixel & 0xFF;
+        }
+        for (int x = 0; x < width; x++) {
+            if (x + radius < width) {
+                int pixel = pixels[row + x + radius];
+                r += (pixel >> 16) & 0xFF;
+                g += (pixel >> 8) & 0xFF;
+                b += pixel & 0xFF;
+            }
+            if (x - radius - 1 >= 0) {
+                int pixel = pixels[row + x - radius - 1];
+                r -= (pixel >> 16) & 0xFF;
+                g -= (pixel >> 8) & 0xFF;
+                b -= pixel & 0xFF;
+            }
+            red[at + x] = r;
+            green[at + x] = g;
+            blue[at + x] = b;
+        }
+    }
+
+    private static void addRow(int[] red, int[] green, int[] blue, int start, int[] sumRed, int[] sumGreen, int[] sumBlue, int width, int sign) {
+        for (int x = 0; x < width; x++) {
+            sumRed[x] += sign * red[start + x];
+            sumGreen[x] += sign * green[start + x];
+            sumBlue[x] += sign * blue[start + x];
+        }
+    }
+}
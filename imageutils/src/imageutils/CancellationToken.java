@@ -0,0 +1,66 @@
+package imageutils;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Cooperative cancellation for filter kernels. A worker runs its effect inside run/call, which makes the
+// token current for that thread; BandExecutor hands it on to the threads that process the bands, and the
+// kernels poll it between bands or rows and stop with a CancellationException.
+public final class CancellationToken {
+
+    public static final CancellationToken NONE = new CancellationToken();
+
+    private static final ThreadLocal<CancellationToken> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private volatile boolean cancelled;
+    private volatile long cancelledAt;
+    private final AtomicLong observedAt = new AtomicLong();
+
+    public void cancel() {
+        if (this == NONE || cancelled) {
+            return;
+        }
+        cancelledAt = System.nanoTime();
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() {
+        if (cancelled) {
+            observedAt.compareAndSet(0, System.nanoTime());
+            throw new CancellationException("Operation cancelled");
+        }
+    }
+
+    // Time between cancel() and the first kernel noticing it, or -1 if no kernel has stopped yet
+    public long latencyNanos() {
+        long observed = observedAt.get();
+        return cancelled && observed != 0 ? Math.max(0, observed - cancelledAt) : -1;
+    }
+
+    public static CancellationToken current() {
+        return CURRENT.get();
+    }
+
+    public void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public <T> T call(Supplier<T> task) {
+        CancellationToken previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            throwIfCancelled();
+            return task.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+}
@@ -0,0 +1,618 @@
+package imageutils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Undo / redo history that stores only the tiles an edit changed, deflated. Undoing writes the stored tiles
+// back and keeps the tiles it overwrote as the redo step, so an edit costs one side of its changed tiles.
+// Steps beyond the memory budget are spilled to disk, the oldest ones beyond the disk budget are dropped.
+//
+// The history follows one state, an object the caller uses to identify the current image (the image itself
+// when edits happen in place, or the published snapshot). Undo and redo are only offered for that state.
+public final class EditHistory {
+
+    public static final int TILE_SIZE = 128;
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    // The pixels of the changed tiles on the other side of an edit, as stored in the image's own pixel layout
+    public static final class Delta {
+        final int width;
+        final int height;
+        private final long id;
+        private final int[] tiles;
+        private final byte[][] data;
+        private final long bytes;
+
+        private Delta(int width, int height, int[] tiles, byte[][] data) {
+            this(IDS.incrementAndGet(), width, height, tiles, data);
+        }
+
+        private Delta(long id, int width, int height, int[] tiles, byte[][] data) {
+            this.id = id;
+            this.width = width;
+            this.height = height;
+            this.tiles = tiles;
+            this.data = data;
+            long total = 0;
+            for (byte[] tile : data) {
+                total += tile.length;
+            }
+            this.bytes = total;
+        }
+
+        int tileCount() {
+            return tiles.length;
+        }
+
+        // The part of the image the changed tiles cover
+        public Rectangle bounds() {
+            int tilesAcross = tilesAcross(width);
+            Rectangle bounds = null;
+            for (int tile : tiles) {
+                int x = tile % tilesAcross * TILE_SIZE;
+                int y = tile / tilesAcross * TILE_SIZE;
+                Rectangle area = new Rectangle(x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+                if (bounds == null) {
+                    bounds = area;
+                } else {
+                    bounds.add(area);
+                }
+            }
+            return bounds == null ? new Rectangle() : bounds;
+        }
+
+        long bytes() {
+            return bytes;
+        }
+    }
+
+    // The pixels of an image edited in place as they were before the edit, saved a tile at a time just before
+    // the edit first writes to the tile, so only the part the edit touches is kept, deflated as it is saved.
+    // save may be called from several threads at once, as bands of an effect run in parallel.
+    public static final class Backup {
+        private final BufferedImage image;
+        private final int tilesAcross;
+        // Deflated tiles as read() lays them out, null until saved; guarded by lengths
+        private final byte[][] saved;
+        // Raw length of each saved tile, 0 until the tile is claimed by a save
+        private final int[] lengths;
+
+        public Backup(BufferedImage image) {
+            this.image = image;
+            this.tilesAcross = tilesAcross(image.getWidth());
+            this.saved = new byte[tilesAcross * tilesDown(image.getHeight())][];
+            this.lengths = new int[saved.length];
+        }
+
+        // Saves the tiles of area that have not been saved yet. A tile is read under the lock, so another
+        // thread saving the same tile returns only once the tile is copied and may then write to it.
+        public void save(Rectangle area) {
+            PixelBuffer buffer = PixelBuffer.of(image);
+            Rectangle clipped = area.intersection(new Rectangle(0, 0, buffer.width, buffer.height));
+            if (clipped.isEmpty()) {
+                return;
+            }
+            Deflater deflater = null;
+            byte[] compressed = null;
+            for (int row = clipped.y / TILE_SIZE; row <= (clipped.y + clipped.height - 1) / TILE_SIZE; row++) {
+                for (int column = clipped.x / TILE_SIZE; column <= (clipped.x + clipped.width - 1) / TILE_SIZE; column++) {
+                    int tile = row * tilesAcross + column;
+                    byte[] raw;
+                    int length;
+                    synchronized (lengths) {
+                        if (lengths[tile] != 0) {
+                            continue;
+                        }
+                        raw = new byte[TILE_SIZE * TILE_SIZE * 4];
+                        length = read(buffer, tile, tilesAcross, raw);
+                        lengths[tile] = length;
+                    }
+                    if (deflater == null) {
+                        deflater = new Deflater(Deflater.BEST_SPEED);
+                        compressed = new byte[raw.length + raw.length / 8 + 64];
+                    }
+                    byte[] data = compress(deflater, raw, length, compressed);
+                    synchronized (lengths) {
+                        saved[tile] = data;
+                    }
+                }
+            }
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        public Delta delta() {
+            return delta(image);
+        }
+
+        // The tiles in which after differs from the image as it was before the edit, holding the pixels from
+        // before, or null if none differ. after is the image itself, or a new image the edit returned after
+        // possibly writing to this one first. Same as diff of a full copy taken before the edit, without the copy.
+        public Delta delta(BufferedImage after) {
+            PixelBuffer before = PixelBuffer.of(image);
+            PixelBuffer now = after == image ? before : PixelBuffer.of(after);
+            if (before.width != now.width || before.height != now.height) {
+                throw new IllegalArgumentException("images differ in size: " + before.width + "x" + before.height
+                        + " and " + now.width + "x" + now.height);
+            }
+            byte[][] changed = new byte[saved.length][];
+            byte[][] tiles;
+            int[] sizes;
+            synchronized (lengths) {
+                tiles = saved.clone();
+                sizes = lengths.clone();
+            }
+
+            BandExecutor.forEachBand(before.width * TILE_SIZE, tilesDown(before.height), (fromRow, toRow) -> {
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                Inflater inflater = new Inflater();
+                byte[] raw = new byte[TILE_SIZE * TILE_SIZE * 4];
+                byte[] current = new byte[raw.length];
+                byte[] buffer = new byte[raw.length + raw.length / 8 + 64];
+                for (int tile = fromRow * tilesAcross; tile < toRow * tilesAcross; tile++) {
+                    if (tiles[tile] == null) {
+                        // Never written, so before still holds the tile as it was
+                        if (now != before && differs(before, now, tile, tilesAcross)) {
+                            int length = read(before, tile, tilesAcross, raw);
+                            changed[tile] = compress(deflater, raw, length, buffer);
+                        }
+                        continue;
+                    }
+                    int length = sizes[tile];
+                    decompress(inflater, tiles[tile], raw, length);
+                    read(now, tile, tilesAcross, current);
+                    if (Arrays.mismatch(raw, 0, length, current, 0, length) >= 0) {
+                        changed[tile] = tiles[tile];
+                    }
+                }
+                deflater.end();
+                inflater.end();
+            });
+
+            return collect(before.width, before.height, changed);
+        }
+    }
+
+    // A step as kept in the history; delta is null while the step is spilled to spillFile
+    private static final class Entry {
+        final long id;
+        final int width;
+        final int height;
+        final int[] tiles;
+        final int[] lengths;
+        final long bytes;
+        Delta delta;
+        Path spillFile;
+
+        Entry(Delta delta) {
+            this.id = delta.id;
+            this.width = delta.width;
+            this.height = delta.height;
+            this.tiles = delta.tiles;
+            this.bytes = delta.bytes;
+            this.lengths = new int[delta.data.length];
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] = delta.data[i].length;
+            }
+            this.delta = delta;
+        }
+    }
+
+    private final long memoryBudget;
+    private final long diskBudget;
+
+    // Guarded by this; the last element of each deque is the next step to undo or redo
+    private final Deque<Entry> undo = new ArrayDeque<>();
+    private final Deque<Entry> redo = new ArrayDeque<>();
+    private Object state;
+    private long memoryBytes;
+    private long diskBytes;
+    private boolean truncated;
+
+    EditHistory(long memoryBudget, long diskBudget) {
+        if (memoryBudget < 0 || diskBudget < 0) {
+            throw new IllegalArgumentException("budgets must not be negative: " + memoryBudget + ", " + diskBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+    }
+
+    // -Dimagehistory.memoryMb and -Dimagehistory.diskMb, 0 disables spilling to disk
+    public static EditHistory withDefaults() {
+        return new EditHistory(Long.getLong("imagehistory.memoryMb", 256) << 20, Long.getLong("imagehistory.diskMb", 2048) << 20);
+    }
+
+    // The tiles of region (or of the whole image when region is null) in which after differs from before,
+    // holding the pixels of before. Returns null when nothing changed.
+    public static Delta diff(BufferedImage before, BufferedImage after, Rectangle region) {
+        PixelBuffer from = PixelBuffer.of(before);
+        PixelBuffer to = PixelBuffer.of(after);
+        if (from.width != to.width || from.height != to.height) {
+            throw new IllegalArgumentException("images differ in size: " + from.width + "x" + from.height
+                    + " and " + to.width + "x" + to.height);
+        }
+
+        Rectangle area = new Rectangle(0, 0, from.width, from.height);
+        if (region != null) {
+            area = area.intersection(region);
+        }
+        if (area.isEmpty()) {
+            return null;
+        }
+
+        int tilesAcross = tilesAcross(from.width);
+        int firstColumn = area.x / TILE_SIZE;
+        int lastColumn = (area.x + area.width - 1) / TILE_SIZE;
+        int firstRow = area.y / TILE_SIZE;
+        int lastRow = (area.y + area.height - 1) / TILE_SIZE;
+        byte[][] changed = new byte[tilesAcross * tilesDown(from.height)][];
+
+        BandExecutor.forEachBand(from.width * TILE_SIZE, lastRow - firstRow + 1, (fromRow, toRow) -> {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            byte[] raw = new byte[TILE_SIZE * TILE_SIZE * 4];
+            byte[] buffer = new byte[raw.length + raw.length / 8 + 64];
+            for (int row = firstRow + fromRow; row < firstRow + toRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int tile = row * tilesAcross + column;
+                    if (differs(from, to, tile, tilesAcross)) {
+                        int length = read(from, tile, tilesAcross, raw);
+                        changed[tile] = compress(deflater, raw, length, buffer);
+                    }
+                }
+            }
+            deflater.end();
+        });
+
+        return collect(from.width, from.height, changed);
+    }
+
+    // Writes the tiles of delta into image and returns the delta that takes image back to where it was
+    public static Delta swap(Delta delta, BufferedImage image) {
+        PixelBuffer buffer = PixelBuffer.of(image);
+        if (buffer.width != delta.width || buffer.height != delta.height) {
+            throw new IllegalArgumentException("delta for a " + delta.width + "x" + delta.height
+                    + " image applied to a " + buffer.width + "x" + buffer.height + " one");
+        }
+        int tilesAcross = tilesAcross(buffer.width);
+        byte[][] previous = new byte[delta.tiles.length][];
+
+        BandExecutor.forEachBand(TILE_SIZE * TILE_SIZE, delta.tiles.length, (from, to) -> {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            Inflater inflater = new Inflater();
+            byte[] raw = new byte[TILE_SIZE * TILE_SIZE * 4];
+            byte[] buffered = new byte[raw.length + raw.length / 8 + 64];
+            for (int i = from; i < to; i++) {
+                int tile = delta.tiles[i];
+                int length = read(buffer, tile, tilesAcross, raw);
+                previous[i] = compress(deflater, raw, length, buffered);
+
+                decompress(inflater, delta.data[i], raw, length);
+                write(buffer, tile, tilesAcross, raw);
+            }
+            deflater.end();
+            inflater.end();
+        });
+        buffer.commit();
+
+        return new Delta(delta.width, delta.height, delta.tiles, previous);
+    }
+
+    // Records an edit that has taken the image from previousState to newState and drops the redo steps.
+    // Returns false without recording if the history is not at previousState, e.g. after a reset.
+    public synchronized boolean push(Delta delta, Object previousState, Object newState) {
+        if (previousState != state) {
+            return false;
+        }
+        for (Entry entry : redo) {
+            release(entry);
+        }
+        redo.clear();
+        if (delta != null) {
+            add(undo, new Entry(delta));
+        }
+        state = newState;
+        enforceBudget();
+        return true;
+    }
+
+    // Starts over at newState, for instance after a different image has been loaded
+    public synchronized void reset(Object newState) {
+        for (Entry entry : undo) {
+            release(entry);
+        }
+        for (Entry entry : redo) {
+            release(entry);
+        }
+        undo.clear();
+        redo.clear();
+        state = newState;
+        truncated = false;
+    }
+
+    // The step undo would apply to currentState, or null if there is none or currentState is not the state
+    // this history has reached (an edit is still being recorded). Pass it to swap and then to undone.
+    public synchronized Delta peekUndo(Object currentState) {
+        return peek(undo, currentState);
+    }
+
+    public synchronized Delta peekRedo(Object currentState) {
+        return peek(redo, currentState);
+    }
+
+    // Completes an undo: done must be the delta from peekUndo, inverse what swap returned for it
+    public synchronized void undone(Delta done, Delta inverse, Object newState) {
+        move(undo, redo, done, inverse, newState);
+    }
+
+    public synchronized void redone(Delta done, Delta inverse, Object newState) {
+        move(redo, undo, done, inverse, newState);
+    }
+
+    synchronized boolean canUndo(Object currentState) {
+        return currentState == state && !undo.isEmpty();
+    }
+
+    synchronized boolean canRedo(Object currentState) {
+        return currentState == state && !redo.isEmpty();
+    }
+
+    // True when old steps were dropped, so undoing everything no longer returns to the first image
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("undo %d, redo %d, %.1f MB in memory, %.1f MB on disk%s",
+                undo.size(), redo.size(), memoryBytes / 1048576.0, diskBytes / 1048576.0, truncated ? ", oldest steps dropped" : "");
+    }
+
+    private Delta peek(Deque<Entry> stack, Object currentState) {
+        if (currentState != state || stack.isEmpty()) {
+            return null;
+        }
+        Entry entry = stack.peekLast();
+        if (entry.delta == null) {
+            load(entry);
+        }
+        return entry.delta;
+    }
+
+    private void move(Deque<Entry> from, Deque<Entry> to, Delta done, Delta inverse, Object newState) {
+        Entry top = from.peekLast();
+        if (top == null || top.id != done.id) {
+            throw new IllegalStateException("history changed while the step was applied");
+        }
+        release(from.removeLast());
+        add(to, new Entry(inverse));
+        state = newState;
+        enforceBudget();
+    }
+
+    private void add(Deque<Entry> stack, Entry entry) {
+        stack.addLast(entry);
+        memoryBytes += entry.bytes;
+    }
+
+    private void release(Entry entry) {
+        if (entry.delta != null) {
+            memoryBytes -= entry.bytes;
+        }
+        if (entry.spillFile != null) {
+            diskBytes -= entry.bytes;
+            try {
+                Files.deleteIfExists(entry.spillFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Spills the steps farthest from the current state first: the oldest undo steps, then the last redo steps
+    private void enforceBudget() {
+        while (memoryBytes > memoryBudget) {
+            Entry victim = farthestInMemory();
+            if (victim == null) {
+                break;
+            }
+            if (diskBudget == 0 || !spill(victim)) {
+                drop(victim);
+            }
+        }
+        while (diskBytes > diskBudget) {
+            Entry oldest = undo.peekFirst() != null && undo.peekFirst().spillFile != null ? undo.peekFirst()
+                    : redo.peekFirst() != null && redo.peekFirst().spillFile != null ? redo.peekFirst() : null;
+            if (oldest == null) {
+                break;
+            }
+            drop(oldest);
+        }
+    }
+
+    // The current step of each stack stays in memory so undo and redo never wait for the disk
+    private Entry farthestInMemory() {
+        for (Entry entry : undo) {
+            if (entry.delta != null && entry != undo.peekLast()) {
+                return entry;
+            }
+        }
+        for (Entry entry : redo) {
+            if (entry.delta != null && entry != redo.peekLast()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void drop(Entry entry) {
+        release(entry);
+        if (undo.remove(entry)) {
+            truncated = true;
+        } else {
+            redo.remove(entry);
+        }
+    }
+
+    private boolean spill(Entry entry) {
+        try {
+            Path file = Files.createTempFile("image-history", ".tiles");
+            file.toFile().deleteOnExit();
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (byte[] tile : entry.delta.data) {
+                    out.write(tile);
+                }
+            }
+            entry.spillFile = file;
+            entry.delta = null;
+            memoryBytes -= entry.bytes;
+            diskBytes += entry.bytes;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void load(Entry entry) {
+        try {
+            byte[] all = Files.readAllBytes(entry.spillFile);
+            byte[][] data = new byte[entry.lengths.length][];
+            int position = 0;
+            for (int i = 0; i < data.length; i++) {
+                data[i] = Arrays.copyOfRange(all, position, position + entry.lengths[i]);
+                position += entry.lengths[i];
+            }
+            Files.deleteIfExists(entry.spillFile);
+            entry.spillFile = null;
+            diskBytes -= entry.bytes;
+
+            entry.delta = new Delta(entry.id, entry.width, entry.height, entry.tiles, data);
+            memoryBytes += entry.bytes;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read spilled history step", e);
+        }
+    }
+
+    private static Delta collect(int width, int height, byte[][] changed) {
+        int count = 0;
+        for (byte[] tile : changed) {
+            if (tile != null) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        int[] tiles = new int[count];
+        byte[][] data = new byte[count][];
+        for (int tile = 0, i = 0; tile < changed.length; tile++) {
+            if (changed[tile] != null) {
+                tiles[i] = tile;
+                data[i++] = changed[tile];
+            }
+        }
+        return new Delta(width, height, tiles, data);
+    }
+
+    private static int tilesAcross(int width) {
+        return (width + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private static int tilesDown(int height) {
+        return (height + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private static boolean differs(PixelBuffer a, PixelBuffer b, int tile, int tilesAcross) {
+        int x0 = tile % tilesAcross * TILE_SIZE;
+        int y0 = tile / tilesAcross * TILE_SIZE;
+        int width = Math.min(TILE_SIZE, a.width - x0);
+        int height = Math.min(TILE_SIZE, a.height - y0);
+        for (int y = y0; y < y0 + height; y++) {
+            int rowA = a.offset + y * a.stride + x0;
+            int rowB = b.offset + y * b.stride + x0;
+            if (Arrays.mismatch(a.pixels, rowA, rowA + width, b.pixels, rowB, rowB + width) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Copies a tile into raw as big-endian ints and returns the number of bytes used
+    private static int read(PixelBuffer buffer, int tile, int tilesAcross, byte[] raw) {
+        int x0 = tile % tilesAcross * TILE_SIZE;
+        int y0 = tile / tilesAcross * TILE_SIZE;
+        int width = Math.min(TILE_SIZE, buffer.width - x0);
+        int height = Math.min(TILE_SIZE, buffer.height - y0);
+        int position = 0;
+        for (int y = y0; y < y0 + height; y++) {
+            int row = buffer.offset + y * buffer.stride + x0;
+            for (int x = 0; x < width; x++) {
+                int pixel = buffer.pixels[row + x];
+                raw[position] = (byte) (pixel >>> 24);
+                raw[position + 1] = (byte) (pixel >>> 16);
+                raw[position + 2] = (byte) (pixel >>> 8);
+                raw[position + 3] = (byte) pixel;
+                position += 4;
+            }
+        }
+        return position;
+    }
+
+    private static void write(PixelBuffer buffer, int tile, int tilesAcross, byte[] raw) {
+        int x0 = tile % tilesAcross * TILE_SIZE;
+        int y0 = tile / tilesAcross * TILE_SIZE;
+        int width = Math.min(TILE_SIZE, buffer.width - x0);
+        int height = Math.min(TILE_SIZE, buffer.height - y0);
+        int position = 0;
+        for (int y = y0; y < y0 + height; y++) {
+            int row = buffer.offset + y * buffer.stride + x0;
+            for (int x = 0; x < width; x++) {
+                buffer.pixels[row + x] = (raw[position] & 0xFF) << 24 | (raw[position + 1] & 0xFF) << 16
+                        | (raw[position + 2] & 0xFF) << 8 | (raw[position + 3] & 0xFF);
+                position += 4;
+            }
+        }
+    }
+
+    // buffer is large enough for the worst case of deflating one tile
+    private static byte[] compress(Deflater deflater, byte[] raw, int length, byte[] buffer) {
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            size += deflater.deflate(buffer, size, buffer.length - size);
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private static void decompress(Inflater inflater, byte[] data, byte[] raw, int length) {
+        inflater.reset();
+        inflater.setInput(data);
+        try {
+            int size = 0;
+            while (size < length && !inflater.finished()) {
+                size += inflater.inflate(raw, size, length - size);
+            }
+            if (size != length) {
+                throw new IllegalStateException("history tile is " + size + " bytes, expected " + length);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt history tile", e);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package imageutils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+public final class EffectPipeline {
+
+    // A stage is either a run of fused point operations or a single barrier
+    private static final class Stage {
+        final List<PointOperation> points = new ArrayList<>();
+        final UnaryOperator<BufferedImage> barrier;
+        final int halo;
+
+        Stage(UnaryOperator<BufferedImage> barrier, int halo) {
+            this.barrier = barrier;
+            this.halo = halo;
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+
+    public static EffectPipeline point(PointOperation operation) {
+        return new EffectPipeline().then(operation);
+    }
+
+    public static EffectPipeline barrier(UnaryOperator<BufferedImage> operation) {
+        return new EffectPipeline().thenBarrier(operation);
+    }
+
+    public static EffectPipeline barrier(UnaryOperator<BufferedImage> operation, int halo) {
+        return new EffectPipeline().thenBarrier(operation, halo);
+    }
+
+    // Consecutive point operations are merged into one stage and cost a single walk over the pixels
+    public EffectPipeline then(PointOperation operation) {
+        Stage last = stages.isEmpty() ? null : stages.get(stages.size() - 1);
+        if (last == null || last.barrier != null) {
+            last = new Stage(null, 0);
+            stages.add(last);
+        }
+        last.points.add(operation);
+        return this;
+    }
+
+    // Neighbourhood operations such as blur need every pixel of the previous stage, so they end the fused run.
+    // The operator may work in place and return its argument or return a new image.
+    public EffectPipeline thenBarrier(UnaryOperator<BufferedImage> operation) {
+        return thenBarrier(operation, 0);
+    }
+
+    // halo is how many rows above and below an output row the operation reads, for running the pipeline on
+    // one band of an image at a time (see StreamingProcessor)
+    public EffectPipeline thenBarrier(UnaryOperator<BufferedImage> operation, int halo) {
+        stages.add(new Stage(operation, halo));
+        return this;
+    }
+
+    public EffectPipeline thenAll(EffectPipeline other) {
+        for (Stage stage : other.stages) {
+            if (stage.barrier != null) {
+                thenBarrier(stage.barrier, stage.halo);
+            } else {
+                stage.points.forEach(this::then);
+            }
+        }
+        return this;
+    }
+
+    boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    // Number of full walks over the image this pipeline costs
+    public int passes() {
+        return stages.size();
+    }
+
+    // Rows of context a band needs on each side for its rows to come out as if the whole image was processed
+    public int halo() {
+        int halo = 0;
+        for (Stage stage : stages) {
+            halo += stage.halo;
+        }
+        return halo;
+    }
+
+    public BufferedImage apply(BufferedImage image) {
+        return apply(image, image);
+    }
+
+    // Runs the pipeline in place on image, calling beforeWrite with each area of image just before it is
+    // first written, e.g. to save its pixels for undo (see EditHistory.Backup): band by band for point
+    // stages, and the whole image before a barrier that is handed image itself, as it may work in place.
+    // Nothing is reported once a barrier has returned a new image, as later stages write to that one.
+    public BufferedImage apply(BufferedImage image, Consumer<Rectangle> beforeWrite) {
+        return apply(image, image, beforeWrite);
+    }
+
+    // Runs the pipeline reading from source and leaving the result in target, or in the image returned by
+    // the last barrier. source is left untouched when it differs from target.
+    public BufferedImage apply(BufferedImage source, BufferedImage target) {
+        return apply(source, target, null);
+    }
+
+    private BufferedImage apply(BufferedImage source, BufferedImage target, Consumer<Rectangle> beforeWrite) {
+        BufferedImage current = source;
+        for (Stage stage : stages) {
+            if (stage.barrier == null) {
+                BufferedImage output = current == source ? target : current;
+                transfer(current, output, stage.points.toArray(new PointOperation[0]), output == source ? beforeWrite : null);
+                current = output;
+            } else {
+                if (current == source && source != target) {
+                    transfer(source, target, new PointOperation[0], null);
+                    current = target;
+                }
+                if (current == source && beforeWrite != null) {
+                    beforeWrite.accept(new Rectangle(0, 0, source.getWidth(), source.getHeight()));
+                }
+                current = stage.barrier.apply(current);
+            }
+        }
+        if (current == source && source != target) {
+            transfer(source, target, new PointOperation[0], null);
+            current = target;
+        }
+        return current;
+    }
+
+    private static void transfer(BufferedImage source, BufferedImage target, PointOperation[] operations, Consumer<Rectangle> beforeWrite) {
+        PixelBuffer from = PixelBuffer.of(source);
+        PixelBuffer to = source == target ? from : PixelBuffer.of(target);
+        applyPoints(from, to, operations, beforeWrite);
+        to.commit();
+    }
+
+    private static void applyPoints(PixelBuffer from, PixelBuffer to, PointOperation[] operations, Consumer<Rectangle> beforeWrite) {
+        int width = from.width;
+        int[] source = from.pixels;
+        int[] target = to.pixels;
+        int readAlpha = from.readAlpha;
+        int storedAlpha = to.readAlpha;
+        int writeMask = to.writeMask;
+        // Packed ARGB on both sides needs no alpha fix-up, so operations can run on the target row itself
+        boolean inTarget = readAlpha == 0 && storedAlpha == 0 && writeMask == 0xFFFFFFFF;
+
+        BandExecutor.forEachBand(width, from.height, (fromY, toY) -> {
+            if (beforeWrite != null) {
+                beforeWrite.accept(new Rectangle(0, fromY, width, toY - fromY));
+            }
+            int[] line = inTarget ? null : new int[width];
+            for (int y = fromY; y < toY; y++) {
+                int in = from.offset + y * from.stride;
+                int out = to.offset + y * to.stride;
+
+                if (inTarget) {
+                    if (source != target || in != out) {
+                        System.arraycopy(source, in, target, out, width);
+                    }
+                    for (PointOperation operation : operations) {
+                        operation.applyRow(target, out, out + width);
+                    }
+                    continue;
+                }
+
+                for (int x = 0; x < width; x++) {
+                    line[x] = source[in + x] | readAlpha;
+                }
+                for (int i = 0; i < operations.length; i++) {
+                    operations[i].applyRow(line, 0, width);
+                    // Every operation sees the pixel exactly as if the previous one had been stored and read back
+                    if (i < operations.length - 1) {
+                        for (int x = 0; x < width; x++) {
+                            line[x] = (line[x] & writeMask) | storedAlpha;
+                        }
+                    }
+                }
+                for (int x = 0; x < width; x++) {
+                    target[out + x] = line[x] & writeMask;
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,132 @@
+package imageutils;
+
+// Hue / saturation / brightness adjustment in 16.16 fixed point. Nothing is allocated per pixel,
+// saturation and brightness are clamped to [0, 1] instead of overflowing like Color.HSBtoRGB does.
+final class HsbAdjustment implements PointOperation {
+
+    private static final int ONE = 1 << 16;
+    private static final int HUE_RANGE = 6 * ONE;
+
+    private final int hueShift;
+    private final long saturationFactor;
+    private final long brightnessFactor;
+
+    private HsbAdjustment(float hueShiftDegrees, float saturationFactor, float brightnessFactor) {
+        if (saturationFactor < 0 || brightnessFactor < 0) {
+            throw new IllegalArgumentException("factors must not be negative: " + saturationFactor + ", " + brightnessFactor);
+        }
+        this.hueShift = Math.floorMod(Math.round(hueShiftDegrees / 60f * ONE), HUE_RANGE);
+        this.saturationFactor = Math.round((double) saturationFactor * ONE);
+        this.brightnessFactor = Math.round((double) brightnessFactor * ONE);
+    }
+
+    static HsbAdjustment of(float hueShiftDegrees, float saturationFactor, float brightnessFactor) {
+        return new HsbAdjustment(hueShiftDegrees, saturationFactor, brightnessFactor);
+    }
+
+    static HsbAdjustment saturation(float saturationFactor) {
+        return new HsbAdjustment(0, saturationFactor, 1);
+    }
+
+    @Override
+    public int apply(int argb) {
+        if (hueShift == 0 && brightnessFactor == ONE) {
+            return scaleSaturation(argb);
+        }
+        return adjust(argb);
+    }
+
+    @Override
+    public void applyRow(int[] pixels, int from, int to) {
+        if (hueShift == 0 && brightnessFactor == ONE) {
+            for (int i = from; i < to; i++) {
+                pixels[i] = scaleSaturation(pixels[i]);
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                pixels[i] = adjust(pixels[i]);
+            }
+        }
+    }
+
+    // With hue and brightness fixed every channel keeps its place between min and max:
+    // c' = max - (max - c) * s' / s, where s' / s is the factor capped so that s' stays <= 1
+    private int scaleSaturation(int argb) {
+        int red = (argb >> 16) & 0xFF;
+        int green = (argb >> 8) & 0xFF;
+        int blue = argb & 0xFF;
+
+        int max = Math.max(red, Math.max(green, blue));
+        int min = Math.min(red, Math.min(green, blue));
+        int delta = max - min;
+        if (delta == 0) {
+            return 0xFF000000 | (argb & 0xFFFFFF);
+        }
+
+        long scale = Math.min(saturationFactor, ((long) max << 16) / delta);
+        red = max - (int) (((max - red) * scale + (ONE >> 1)) >> 16);
+        green = max - (int) (((max - green) * scale + (ONE >> 1)) >> 16);
+        blue = max - (int) (((max - blue) * scale + (ONE >> 1)) >> 16);
+
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    private int adjust(int argb) {
+        int red = (argb >> 16) & 0xFF;
+        int green = (argb >> 8) & 0xFF;
+        int blue = argb & 0xFF;
+
+        int max = Math.max(red, Math.max(green, blue));
+        int min = Math.min(red, Math.min(green, blue));
+        int delta = max - min;
+
+        int value = (int) Math.min(255, (max * brightnessFactor + (ONE >> 1)) >> 16);
+        if (delta == 0) {
+            return 0xFF000000 | (value * 0x010101);
+        }
+
+        long saturation = Math.min(ONE, (((long) delta << 16) / max * saturationFactor) >> 16);
+
+        int hue;
+        if (max == red) {
+            hue = (green - blue) * ONE / delta;
+            if (hue < 0) {
+                hue += HUE_RANGE;
+            }
+        } else if (max == green) {
+            hue = 2 * ONE + (blue - red) * ONE / delta;
+        } else {
+            hue = 4 * ONE + (red - green) * ONE / delta;
+        }
+        hue += hueShift;
+        if (hue >= HUE_RANGE) {
+            hue -= HUE_RANGE;
+        }
+
+        int sector = hue >> 16;
+        long fraction = hue & (ONE - 1);
+        int p = channel(value, saturation * ONE);
+        int q = channel(value, saturation * fraction);
+        int t = channel(value, saturation * (ONE - fraction));
+
+        switch (sector) {
+            case 0:
+                return 0xFF000000 | (value << 16) | (t << 8) | p;
+            case 1:
+                return 0xFF000000 | (q << 16) | (value << 8) | p;
+            case 2:
+                return 0xFF000000 | (p << 16) | (value << 8) | t;
+            case 3:
+                return 0xFF000000 | (p << 16) | (q << 8) | value;
+            case 4:
+                return 0xFF000000 | (t << 16) | (p << 8) | value;
+            default:
+                return 0xFF000000 | (value << 16) | (p << 8) | q;
+        }
+    }
+
+    // value * (1 - amount), with amount in 32.32 fixed point
+    private static int channel(int value, long amount) {
+        return (int) ((value * ((1L << 32) - amount) + (1L << 31)) >> 32);
+    }
+}
@@ -0,0 +1,236 @@
+package imageutils;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Decoded images keyed by path, modification time and size, evicted least recently used first once they take
+// more than the byte budget (-Dimagecache.mb, default 256). Loads of the same file share one decode, and
+// prefetch() decodes the files next to one in its directory in the background, so stepping through a folder
+// finds them ready. Cached images are shared: callers that draw into an image must copy it first.
+public final class ImageCache {
+
+    private static final ImageCache SHARED = new ImageCache(Long.getLong("imagecache.mb", 256) << 20);
+
+    // Next, previous and the one after next, in the order they are decoded
+    private static final int[] PREFETCH_OFFSETS = {1, -1, 2};
+
+    private static final class Entry {
+        final long modified;
+        final long length;
+        final BufferedImage image;
+        final long bytes;
+        // Decoded by prefetch() and not asked for yet
+        boolean prefetched;
+
+        Entry(long modified, long length, BufferedImage image, boolean prefetched) {
+            this.modified = modified;
+            this.length = length;
+            this.image = image;
+            this.bytes = 4L * image.getWidth() * image.getHeight();
+            this.prefetched = prefetched;
+        }
+    }
+
+    private static final class Loading {
+        final CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+        final boolean prefetch;
+        boolean wanted;
+
+        Loading(boolean prefetch) {
+            this.prefetch = prefetch;
+        }
+    }
+
+    private final long budget;
+    private final ThreadPoolExecutor prefetcher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), task -> {
+        Thread thread = new Thread(task, "image-prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Loading> loading = new HashMap<>();
+    private long bytes;
+    private long hits;
+    private long prefetchHits;
+    private long misses;
+    private long stale;
+    private long evictions;
+    private long prefetched;
+
+    ImageCache(long budget) {
+        this.budget = budget;
+    }
+
+    public static ImageCache shared() {
+        return SHARED;
+    }
+
+    // The images in directory a reader can decode, by name
+    static List<File> imagesIn(File directory) {
+        List<String> suffixes = Arrays.stream(ImageIO.getReaderFileSuffixes())
+                .map(suffix -> suffix.toLowerCase(Locale.ROOT)).collect(Collectors.toList());
+        File[] files = directory == null ? null : directory.listFiles(file -> file.isFile()
+                && suffixes.contains(file.getName().substring(file.getName().lastIndexOf('.') + 1).toLowerCase(Locale.ROOT)));
+        if (files == null) {
+            return List.of();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    // The image offset places after file in its directory, or null
+    public static File neighbour(File file, int offset) {
+        List<File> files = imagesIn(file.getAbsoluteFile().getParentFile());
+        int index = files.indexOf(file.getAbsoluteFile());
+        if (index < 0 || index + offset < 0 || index + offset >= files.size()) {
+            return null;
+        }
+        return files.get(index + offset);
+    }
+
+    // Returns the decoded image, from the cache when the file has not changed, or null if it cannot be read
+    public BufferedImage load(File file) {
+        String path = file.getAbsolutePath();
+        long modified = file.lastModified();
+        long length = file.length();
+        Loading load;
+        boolean decodeHere = false;
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.modified == modified && entry.length == length) {
+                hits++;
+                if (entry.prefetched) {
+                    entry.prefetched = false;
+                    prefetchHits++;
+                }
+                return entry.image;
+            }
+            if (entry != null) {
+                entries.remove(path);
+                bytes -= entry.bytes;
+                stale++;
+            }
+
+            // A decode already running for the file, prefetch or not, is cheaper to wait for than to repeat
+            load = loading.get(path);
+            if (load == null) {
+                load = new Loading(false);
+                loading.put(path, load);
+                misses++;
+                decodeHere = true;
+            } else {
+                hits++;
+                if (load.prefetch && !load.wanted) {
+                    load.wanted = true;
+                    prefetchHits++;
+                }
+            }
+        }
+        if (decodeHere) {
+            decode(file, path, modified, length, load);
+        }
+        return load.result.join();
+    }
+
+    // Decodes the images around file in the background, dropping prefetches queued for an earlier file
+    public void prefetch(File file) {
+        prefetcher.getQueue().clear();
+        prefetcher.execute(() -> {
+            for (int offset : PREFETCH_OFFSETS) {
+                File neighbour = neighbour(file, offset);
+                // A newer file was opened, its neighbours matter more
+                if (!prefetcher.getQueue().isEmpty()) {
+                    return;
+                }
+                if (neighbour != null) {
+                    prefetchNow(neighbour);
+                }
+            }
+        });
+    }
+
+    private void prefetchNow(File file) {
+        try {
+            // Images that would push out half the cache are decoded when they are opened
+            Dimension size = StreamingProcessor.sizeOf(file);
+            if (4L * size.width * size.height > budget / 2) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+
+        String path = file.getAbsolutePath();
+        long modified = file.lastModified();
+        long length = file.length();
+        Loading load;
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (loading.containsKey(path) || entry != null && entry.modified == modified && entry.length == length) {
+                return;
+            }
+            load = new Loading(true);
+            loading.put(path, load);
+            prefetched++;
+        }
+        decode(file, path, modified, length, load);
+    }
+
+    private void decode(File file, String path, long modified, long length, Loading load) {
+        BufferedImage image = null;
+        try {
+            image = ImageUtils.loadImage(file);
+        } finally {
+            synchronized (this) {
+                loading.remove(path);
+                if (image != null) {
+                    store(path, new Entry(modified, length, image, load.prefetch && !load.wanted));
+                }
+            }
+            load.result.complete(image);
+        }
+    }
+
+    // Guarded by this
+    private void store(String path, Entry entry) {
+        if (entry.bytes > budget) {
+            return;
+        }
+        Entry previous = entries.put(path, entry);
+        bytes += entry.bytes - (previous == null ? 0 : previous.bytes);
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (bytes > budget && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            if (evicted != entry) {
+                bytes -= evicted.bytes;
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("image cache: %d images, %.1f of %d MB, %d hits (%d prefetched), %d misses, %d stale, %d evictions, %d prefetches",
+                entries.size(), bytes / 1048576.0, budget >> 20, hits, prefetchHits, misses, stale, evictions, prefetched);
+    }
+}
@@ -0,0 +1,83 @@
+package imageutils;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.function.UnaryOperator;
+
+public class ImageUtils {
+    // Images that would take more than a quarter of the heap are loaded subsampled instead of failing;
+    // StreamingProcessor and the lab5 editor's MappedRaster work on them at full size
+    public static BufferedImage loadImage(File file) {
+        try {
+            return StreamingProcessor.readFitting(file, heapLimit());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    static long heapLimit() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    public static boolean fitsInHeap(File file) throws IOException {
+        Dimension size = StreamingProcessor.sizeOf(file);
+        return 4L * size.width * size.height <= heapLimit();
+    }
+
+    public static BufferedImage copy(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+
+    // Saturation is clamped to 1, so large factors saturate instead of wrapping around
+    public static PointOperation saturation(float saturationFactor) {
+        return HsbAdjustment.saturation(saturationFactor);
+    }
+
+    public static PointOperation adjustHsb(float hueShiftDegrees, float saturationFactor, float brightnessFactor) {
+        return HsbAdjustment.of(hueShiftDegrees, saturationFactor, brightnessFactor);
+    }
+
+    public static PointOperation grayscale() {
+        return LookupTables.grayscale(false);
+    }
+
+    public static PointOperation changeColor() {
+        return changeColor(50, 30, 20);
+    }
+
+    public static PointOperation changeColor(int redOffset, int greenOffset, int blueOffset) {
+        return LookupTables.colorOffset(redOffset, greenOffset, blueOffset);
+    }
+
+    public static UnaryOperator<BufferedImage> blur(int radius) {
+        return image -> {
+            applyBlur(image, radius);
+            return image;
+        };
+    }
+
+    public static void changeSaturation(BufferedImage image, float saturationFactor) {
+        EffectPipeline.point(saturation(saturationFactor)).apply(image);
+    }
+
+    public static void convertToGrayscale(BufferedImage image) {
+        EffectPipeline.point(grayscale()).apply(image);
+    }
+
+    public static void applyBlur(BufferedImage image) {
+        applyBlur(image, 1);
+    }
+
+    public static void applyBlur(BufferedImage image, int radius) {
+        PixelBuffer buffer = PixelBuffer.of(image);
+        BoxBlur.blur(buffer, buffer, radius);
+        buffer.commit();
+    }
+
+    public static void changeColor(BufferedImage image) {
+        EffectPipeline.point(changeColor()).apply(image);
+    }
+}
@@ -0,0 +1,173 @@
+package imageutils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Table driven point operations. Tables are built once per parameter set and shared,
+// so applying them allocates nothing per pixel. Where SimdKernels are available, rows go through
+// those instead; apply() on single pixels always uses the tables.
+public final class LookupTables {
+
+    // Every position of the Adjust sliders is an offset of its own, so only the most recent ones are kept
+    private static final int COLOR_OFFSET_LIMIT = 16;
+    // Guarded by itself, least recently used first
+    private static final Map<Integer, PointOperation> COLOR_OFFSETS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PointOperation> eldest) {
+            return size() > COLOR_OFFSET_LIMIT;
+        }
+    };
+
+    private static final SimdKernels SIMD = SimdKernels.available();
+
+    private static final PointOperation INVERT = new ChannelLut(
+            table(value -> 255 - value, 16), table(value -> 255 - value, 8), table(value -> 255 - value, 0),
+            0xFF000000, 0, SIMD == null ? null : SIMD::invert);
+
+    private static final PointOperation GRAYSCALE = new LuminanceLut(0, 0, true);
+    private static final PointOperation GRAYSCALE_KEEP_ALPHA = new LuminanceLut(0xFF000000, 0, true);
+
+    private LookupTables() {
+    }
+
+    // (channel + offset) mod 256 on every channel, opaque result
+    static PointOperation colorOffset(int redOffset, int greenOffset, int blueOffset) {
+        int key = (Math.floorMod(redOffset, 256) << 16) | (Math.floorMod(greenOffset, 256) << 8) | Math.floorMod(blueOffset, 256);
+        synchronized (COLOR_OFFSETS) {
+            return COLOR_OFFSETS.computeIfAbsent(key, k -> new ChannelLut(
+                    table(value -> (value + redOffset) & 0xFF, 16),
+                    table(value -> (value + greenOffset) & 0xFF, 8),
+                    table(value -> (value + blueOffset) & 0xFF, 0),
+                    0, 0xFF000000, SIMD == null ? null : (pixels, from, to) -> SIMD.addChannels(pixels, from, to, k)));
+        }
+    }
+
+    // 255 - channel on every channel, alpha kept
+    public static PointOperation invert() {
+        return INVERT;
+    }
+
+    // (int) (0.299 * red + 0.587 * green + 0.114 * blue); alpha is either kept or cleared
+    public static PointOperation grayscale(boolean keepAlpha) {
+        return keepAlpha ? GRAYSCALE_KEEP_ALPHA : GRAYSCALE;
+    }
+
+    // operation without its SIMD rows, for comparing the two
+    public static PointOperation scalar(PointOperation operation) {
+        if (operation instanceof ChannelLut) {
+            ChannelLut lut = (ChannelLut) operation;
+            return new ChannelLut(lut.red, lut.green, lut.blue, lut.alphaMask, lut.alphaBits, null);
+        }
+        if (operation instanceof LuminanceLut) {
+            LuminanceLut lut = (LuminanceLut) operation;
+            return new LuminanceLut(lut.alphaMask, lut.alphaBits, false);
+        }
+        return operation;
+    }
+
+    private interface ChannelFunction {
+        int apply(int value);
+    }
+
+    private interface RowKernel {
+        void apply(int[] pixels, int from, int to);
+    }
+
+    private static int[] table(ChannelFunction function, int shift) {
+        int[] table = new int[256];
+        for (int value = 0; value < 256; value++) {
+            table[value] = function.apply(value) << shift;
+        }
+        return table;
+    }
+
+    private static final class ChannelLut implements PointOperation {
+        // Entries are already shifted into their channel position
+        private final int[] red;
+        private final int[] green;
+        private final int[] blue;
+        private final int alphaMask;
+        private final int alphaBits;
+        // Same result for whole rows, or null
+        private final RowKernel simd;
+
+        ChannelLut(int[] red, int[] green, int[] blue, int alphaMask, int alphaBits, RowKernel simd) {
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+            this.alphaMask = alphaMask;
+            this.alphaBits = alphaBits;
+            this.simd = simd;
+        }
+
+        @Override
+        public int apply(int argb) {
+            return (argb & alphaMask) | alphaBits
+                    | red[(argb >> 16) & 0xFF] | green[(argb >> 8) & 0xFF] | blue[argb & 0xFF];
+        }
+
+        @Override
+        public void applyRow(int[] pixels, int from, int to) {
+            if (simd != null) {
+                simd.apply(pixels, from, to);
+                return;
+            }
+            int[] red = this.red;
+            int[] green = this.green;
+            int[] blue = this.blue;
+            int alphaMask = this.alphaMask;
+            int alphaBits = this.alphaBits;
+            for (int i = from; i < to; i++) {
+                int argb = pixels[i];
+                pixels[i] = (argb & alphaMask) | alphaBits
+                        | red[(argb >> 16) & 0xFF] | green[(argb >> 8) & 0xFF] | blue[argb & 0xFF];
+            }
+        }
+    }
+
+    private static final class LuminanceLut implements PointOperation {
+        // Same products the direct formula computes, added in the same order, so the result is bit-identical
+        private static final double[] RED = weights(0.299);
+        private static final double[] GREEN = weights(0.587);
+        private static final double[] BLUE = weights(0.114);
+
+        private final int alphaMask;
+        private final int alphaBits;
+        private final boolean simd;
+
+        LuminanceLut(int alphaMask, int alphaBits, boolean simd) {
+            this.alphaMask = alphaMask;
+            this.alphaBits = alphaBits;
+            this.simd = simd && SIMD != null;
+        }
+
+        private static double[] weights(double weight) {
+            double[] table = new double[256];
+            for (int value = 0; value < 256; value++) {
+                table[value] = weight * value;
+            }
+            return table;
+        }
+
+        @Override
+        public int apply(int argb) {
+            int gray = (int) (RED[(argb >> 16) & 0xFF] + GREEN[(argb >> 8) & 0xFF] + BLUE[argb & 0xFF]);
+            return (argb & alphaMask) | alphaBits | (gray * 0x010101);
+        }
+
+        @Override
+        public void applyRow(int[] pixels, int from, int to) {
+            if (simd) {
+                SIMD.luminance(pixels, from, to, alphaMask, alphaBits);
+                return;
+            }
+            int alphaMask = this.alphaMask;
+            int alphaBits = this.alphaBits;
+            for (int i = from; i < to; i++) {
+                int argb = pixels[i];
+                int gray = (int) (RED[(argb >> 16) & 0xFF] + GREEN[(argb >> 8) & 0xFF] + BLUE[argb & 0xFF]);
+                pixels[i] = (argb & alphaMask) | alphaBits | (gray * 0x010101);
+            }
+        }
+    }
+}
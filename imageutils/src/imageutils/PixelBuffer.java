@@ -0,0 +1,98 @@
+package imageutils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+public final class PixelBuffer {
+
+    final int width;
+    final int height;
+    public final int[] pixels;
+    public final int offset;
+    public final int stride;
+
+    // TYPE_INT_RGB keeps no alpha in the raster: getRGB reports it as opaque and setRGB drops it
+    public final int readAlpha;
+    final int writeMask;
+
+    private final BufferedImage image;
+    private final boolean direct;
+
+    private PixelBuffer(BufferedImage image, int[] pixels, int offset, int stride, int readAlpha, int writeMask, boolean direct) {
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.pixels = pixels;
+        this.offset = offset;
+        this.stride = stride;
+        this.readAlpha = readAlpha;
+        this.writeMask = writeMask;
+        this.direct = direct;
+    }
+
+    public static PixelBuffer of(BufferedImage image) {
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            WritableRaster raster = image.getRaster();
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            int offset = raster.getDataBuffer().getOffset()
+                    - raster.getSampleModelTranslateY() * stride
+                    - raster.getSampleModelTranslateX();
+
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                return new PixelBuffer(image, data, offset, stride, 0xFF000000, 0x00FFFFFF, true);
+            }
+            return new PixelBuffer(image, data, offset, stride, 0, 0xFFFFFFFF, true);
+        }
+
+        int width = image.getWidth();
+        int[] data = image.getRGB(0, 0, width, image.getHeight(), null, 0, width);
+        return new PixelBuffer(image, data, 0, width, 0, 0xFFFFFFFF, false);
+    }
+
+    // Replaces the whole image with a packed width * height array whose values are already masked
+    void commit(int[] packed) {
+        if (direct) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(packed, y * width, pixels, offset + y * stride, width);
+            }
+        } else {
+            image.setRGB(0, 0, width, height, packed, 0, width);
+        }
+    }
+
+    void commit() {
+        if (!direct) {
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+        }
+    }
+
+    // Gray, indexed and byte-interleaved images are widened to INT_RGB or INT_ARGB and stay that way. The old
+    // filters wrote every result back into the original type through setRGB, which snapped gray and indexed
+    // images back to gray values or to their palette after each filter; the packed copy keeps full colour, so
+    // for those types results now differ from before (changeColor on a gray image gives a coloured one).
+    public static BufferedImage toPackedImage(BufferedImage image) {
+        if (image == null) {
+            return null;
+        }
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int packedType = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage packed = new BufferedImage(width, height, packedType);
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            packed.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,15 @@
+package imageutils;
+
+// Per-pixel operation on a packed ARGB value; pipelines fuse consecutive ones into a single pass
+@FunctionalInterface
+public interface PointOperation {
+    int apply(int argb);
+
+    // Applies the operation to pixels[from, to) in place. Pipelines call this once per row,
+    // so implementations with a tight loop of their own avoid a virtual call per pixel.
+    default void applyRow(int[] pixels, int from, int to) {
+        for (int i = from; i < to; i++) {
+            pixels[i] = apply(pixels[i]);
+        }
+    }
+}
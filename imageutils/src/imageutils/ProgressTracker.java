@@ -0,0 +1,118 @@
+package imageutils;
+
+import java.util.function.Supplier;
+
+// Progress of the filter kernels. A worker runs its effect inside run/call, which makes the tracker current
+// for that thread; BandExecutor reports every finished band to it. Reports are coalesced so the listener is
+// called at most once per interval, with the overall percentage and the rows written since the last call.
+public final class ProgressTracker {
+
+    public interface Listener {
+        // Called on a filter thread; fromY is -1 when no rows were written since the last call
+        void progress(int percent, int fromY, int toY);
+    }
+
+    public static final ProgressTracker NONE = new ProgressTracker(1, 0, (percent, fromY, toY) -> {
+    });
+
+    private static final ThreadLocal<ProgressTracker> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private final Listener listener;
+    private final long intervalNanos;
+
+    // Guarded by this
+    private int passes;
+    private int pass = -1;
+    private long passRows;
+    private long rowsDone;
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = -1;
+    private int reportedPercent;
+    private long reportedAt = System.nanoTime();
+
+    // passes is the number of walks over the image the effect is expected to make
+    public ProgressTracker(int passes, long intervalMillis, Listener listener) {
+        this.passes = Math.max(1, passes);
+        this.intervalNanos = intervalMillis * 1_000_000;
+        this.listener = listener;
+    }
+
+    public static ProgressTracker current() {
+        return CURRENT.get();
+    }
+
+    public synchronized void beginPass(int height) {
+        if (this == NONE) {
+            return;
+        }
+        pass++;
+        passes = Math.max(passes, pass + 1);
+        passRows = Math.max(1, height);
+        rowsDone = 0;
+    }
+
+    public void bandDone(int fromY, int toY) {
+        if (this == NONE) {
+            return;
+        }
+        int percent;
+        int from;
+        int to;
+        synchronized (this) {
+            rowsDone += toY - fromY;
+            dirtyFrom = Math.min(dirtyFrom, fromY);
+            dirtyTo = Math.max(dirtyTo, toY);
+
+            long now = System.nanoTime();
+            if (now - reportedAt < intervalNanos) {
+                return;
+            }
+            reportedAt = now;
+            // 100 is left for finish(), after the effect has stored its result
+            int current = (int) ((pass * passRows + rowsDone) * 100 / (passes * passRows));
+            reportedPercent = Math.max(reportedPercent, Math.min(99, current));
+            percent = reportedPercent;
+            from = dirtyTo < 0 ? -1 : dirtyFrom;
+            to = dirtyTo;
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = -1;
+        }
+        listener.progress(percent, from, to);
+    }
+
+    // Reports 100% together with whatever rows were not reported yet
+    void finish() {
+        if (this == NONE) {
+            return;
+        }
+        int from;
+        int to;
+        synchronized (this) {
+            reportedPercent = 100;
+            from = dirtyTo < 0 ? -1 : dirtyFrom;
+            to = dirtyTo;
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = -1;
+        }
+        listener.progress(100, from, to);
+    }
+
+    public void run(Runnable task) {
+        call(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public <T> T call(Supplier<T> task) {
+        ProgressTracker previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            T result = task.get();
+            finish();
+            return result;
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+}
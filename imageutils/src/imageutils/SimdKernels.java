@@ -0,0 +1,42 @@
+package imageutils;
+
+// SIMD versions of the point operations in LookupTables. The implementation, VectorApiKernels, is written
+// against the incubating jdk.incubator.vector module, which javac and java only resolve when asked to:
+//   javac --add-modules jdk.incubator.vector -cp <classes> -d <classes> vector/imageutils/VectorApiKernels.java
+//   java --add-modules jdk.incubator.vector ...
+// so it lives in the vector source root next to src and is looked up by name. The imageutils IDE module
+// compiles that root with the javac option (.idea/compiler.xml) and the shared run configurations pass the
+// java one; a plain javac of src leaves it out. When the module is not in the boot layer, the class was not
+// compiled or -Dimageutils.scalar=true is set, available() is null and the table driven loops run instead.
+public abstract class SimdKernels {
+
+    private static final SimdKernels AVAILABLE = load();
+
+    public static SimdKernels available() {
+        return AVAILABLE;
+    }
+
+    private static SimdKernels load() {
+        if (Boolean.getBoolean("imageutils.scalar") || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (SimdKernels) Class.forName(SimdKernels.class.getPackageName() + ".VectorApiKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // argb ^ 0x00FFFFFF: 255 - channel on every channel, alpha kept
+    abstract void invert(int[] pixels, int from, int to);
+
+    // Adds the bytes of offsets to red, green and blue modulo 256; the result is opaque
+    abstract void addChannels(int[] pixels, int from, int to, int offsets);
+
+    // (int) (0.299 * red + 0.587 * green + 0.114 * blue), bit for bit what the double formula gives
+    abstract void luminance(int[] pixels, int from, int to, int alphaMask, int alphaBits);
+
+    // Lane counts, for benchmark output
+    public abstract String describe();
+}
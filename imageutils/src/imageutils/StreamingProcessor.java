@@ -0,0 +1,348 @@
+package imageutils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Vector;
+
+// Runs an effect pipeline over an image file without holding the whole image. The reader decodes one band of
+// rows at a time through a source region, optionally subsampled; the band goes through the pipeline with
+// the pipeline's halo rows above and below it; the writer pulls finished rows from a RenderedImage that makes
+// bands on demand. Peak memory is about one band, whatever the size of the image. Readers of sequential
+// formats such as PNG and JPEG scan the file from the start for every band, so bands are as tall as the
+// budget allows.
+public final class StreamingProcessor {
+
+    // Writers that pull the image a row at a time; the JPEG and GIF writers ask for all of it at once
+    public static final List<String> OUTPUT_FORMATS = List.of("png", "bmp", "tiff");
+
+    // Property of an image from readFitting holding the Integer n when only every n-th pixel was read
+    static final String SUBSAMPLING = "streaming.subsampling";
+
+    private final EffectPipeline effects;
+    private final int subsampling;
+    private final long bandBudget = Long.getLong("streaming.bandMb", 64) << 20;
+
+    private int width;
+    private int height;
+    private int bands;
+    private long peakBandBytes;
+    private long decodeNanos;
+    private long effectNanos;
+    private long totalNanos;
+
+    // subsampling keeps every n-th pixel in both directions, for a smaller output
+    public StreamingProcessor(EffectPipeline effects, int subsampling) {
+        if (subsampling < 1) {
+            throw new IllegalArgumentException("subsampling must be positive: " + subsampling);
+        }
+        this.effects = effects;
+        this.subsampling = subsampling;
+    }
+
+    public static String formatOf(File file) {
+        String name = file.getName();
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        return extension.equals("tif") ? "tiff" : extension;
+    }
+
+    public static Dimension sizeOf(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = reader(in, file);
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Reads the image at the finest subsampling that keeps it under maxBytes as packed pixels, so an image
+    // too large for the heap can still be looked at; see subsamplingOf
+    static BufferedImage readFitting(File file, long maxBytes) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = reader(in, file);
+            try {
+                long bytes = 4L * reader.getWidth(0) * reader.getHeight(0);
+                int step = 1;
+                while (bytes / ((long) step * step) > maxBytes) {
+                    step++;
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage image = PixelBuffer.toPackedImage(reader.read(0, param));
+                if (step == 1) {
+                    return image;
+                }
+                Hashtable<String, Object> properties = new Hashtable<>();
+                properties.put(SUBSAMPLING, step);
+                return new BufferedImage(image.getColorModel(), image.getRaster(), image.isAlphaPremultiplied(), properties);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // 1 for an image at full resolution, n when readFitting kept only every n-th pixel of the file
+    public static int subsamplingOf(BufferedImage image) {
+        Object step = image.getProperty(SUBSAMPLING);
+        return step instanceof Integer ? (Integer) step : 1;
+    }
+
+    public void process(File input, File output) throws IOException {
+        String format = formatOf(output);
+        if (!OUTPUT_FORMATS.contains(format)) {
+            throw new IllegalArgumentException("streamed output must be one of " + OUTPUT_FORMATS + ": " + output);
+        }
+        long start = System.nanoTime();
+        bands = 0;
+        peakBandBytes = 0;
+        decodeNanos = 0;
+        effectNanos = 0;
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            ImageReader reader = reader(in, input);
+            ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+            try {
+                BandedImage image = new BandedImage(reader);
+                // The file stream would keep the tail of a longer old file
+                if (output.exists() && !output.delete()) {
+                    throw new IOException("cannot replace " + output);
+                }
+                try (ImageOutputStream out = ImageIO.createImageOutputStream(output)) {
+                    writer.setOutput(out);
+                    writer.write(image);
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                writer.dispose();
+                reader.dispose();
+            }
+        }
+        totalNanos = System.nanoTime() - start;
+    }
+
+    public String statistics() {
+        double seconds = totalNanos / 1e9;
+        return String.format("%dx%d in %d bands, peak band %.1f MB, decode %.0f ms, effects %.0f ms, total %.0f ms (%.1f MP/s)",
+                width, height, bands, peakBandBytes / 1048576.0, decodeNanos / 1e6, effectNanos / 1e6,
+                totalNanos / 1e6, seconds == 0 ? 0 : (double) width * height / 1e6 / seconds);
+    }
+
+    public static ImageReader reader(ImageInputStream in, File file) throws IOException {
+        Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException("no image reader for " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    // The processed image, one tile per band. Only the last band made is kept, which is all a writer pulling
+    // rows in order (or in reverse, like BMP) needs.
+    private final class BandedImage implements RenderedImage {
+        private final ImageReader reader;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final int halo;
+        private final int bandRows;
+        private final ColorModel colorModel;
+        private final SampleModel sampleModel;
+
+        private int cachedBand = -1;
+        private Raster cached;
+
+        BandedImage(ImageReader reader) throws IOException {
+            this.reader = reader;
+            sourceWidth = reader.getWidth(0);
+            sourceHeight = reader.getHeight(0);
+            width = (sourceWidth + subsampling - 1) / subsampling;
+            height = (sourceHeight + subsampling - 1) / subsampling;
+            halo = effects.halo();
+            // The decoded band, its packed copy and the work arrays of a blur each take about a band of ints
+            bandRows = (int) Math.max(1, Math.min(height, bandBudget / (12L * width)));
+
+            BufferedImage first = process(0);
+            colorModel = first.getColorModel();
+            sampleModel = first.getSampleModel().createCompatibleSampleModel(width, bandRows);
+        }
+
+        // Decodes band index with its halo, runs the effects and keeps the band without the halo
+        private BufferedImage process(int index) {
+            int fromY = index * bandRows;
+            int toY = Math.min(height, fromY + bandRows);
+            int top = Math.min(halo, fromY);
+            int bottom = Math.min(halo, height - toY);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            int sourceY = (fromY - top) * subsampling;
+            param.setSourceRegion(new Rectangle(0, sourceY, sourceWidth,
+                    Math.min(sourceHeight - sourceY, (toY + bottom - fromY + top) * subsampling)));
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+            long start = System.nanoTime();
+            BufferedImage decoded;
+            try {
+                decoded = reader.read(0, param);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            BufferedImage packed = PixelBuffer.toPackedImage(decoded);
+            long decodedAt = System.nanoTime();
+            BufferedImage result = effects.apply(packed);
+            long end = System.nanoTime();
+
+            decodeNanos += decodedAt - start;
+            effectNanos += end - decodedAt;
+            bands++;
+            long bytes = 4L * packed.getWidth() * packed.getHeight() + (packed == decoded ? 0 : bytes(decoded))
+                    + (result == packed ? 0 : bytes(result));
+            peakBandBytes = Math.max(peakBandBytes, bytes);
+
+            cachedBand = index;
+            cached = result.getRaster().createChild(0, top, width, toY - fromY, 0, fromY, null);
+            return result;
+        }
+
+        private long bytes(BufferedImage image) {
+            DataBuffer buffer = image.getRaster().getDataBuffer();
+            return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        }
+
+        private Raster band(int index) {
+            if (index != cachedBand) {
+                process(index);
+            }
+            return cached;
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return band(tileY);
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            return copyData(Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(rect.width, rect.height),
+                    new Point(rect.x, rect.y)));
+        }
+
+        // Holds the whole image; only writers outside OUTPUT_FORMATS ask for it
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(0, 0, width, height));
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            if (raster == null) {
+                raster = Raster.createWritableRaster(sampleModel.createCompatibleSampleModel(width, height), null);
+            }
+            int fromY = Math.max(0, raster.getMinY());
+            int toY = Math.min(height, raster.getMinY() + raster.getHeight());
+            for (int index = fromY / bandRows; index * bandRows < toY; index++) {
+                raster.setRect(band(index));
+            }
+            return raster;
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return colorModel;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return sampleModel;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return (height + bandRows - 1) / bandRows;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return bandRows;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package imageutils;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Draws brush strokes onto a Canvas. One BasicStroke serves a whole stroke, drag events are queued and drawn
+// together on the next turn of the EDT, and only the tiles under the new segments are redrawn.
+// The viewport calls painted() after drawing the image, which measures input-to-pixel latency: from the mouse
+// event to the paint that first shows its segment.
+public final class StrokeRenderer {
+
+    // What a stroke is drawn on. draw is told the area the painter is about to change first, so the canvas can
+    // keep or copy the pixels there before they are overwritten.
+    public interface Canvas {
+        void draw(Rectangle area, Consumer<Graphics2D> painter);
+
+        // Called when the stroke ends
+        void dispose();
+    }
+
+    private final TiledViewport viewport;
+
+    // Only used on the EDT
+    private Canvas canvas;
+    private Color color;
+    private BasicStroke brush;
+    private int margin;
+    private Point last;
+    private Rectangle bounds;
+    private final List<Point> pending = new ArrayList<>();
+    private long oldestPendingEvent;
+    private boolean flushQueued;
+    private long awaitingPaintSince;
+
+    private int segments;
+    private int repaints;
+    private int measured;
+    private long totalLatencyMillis;
+    private long maxLatencyMillis;
+
+    public StrokeRenderer(TiledViewport viewport) {
+        this.viewport = viewport;
+    }
+
+    static BasicStroke brush(int brushSize) {
+        return new BasicStroke(brushSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    }
+
+    // Draws a recorded stroke again, for instance on top of a newer version of the image
+    public static void replay(BufferedImage target, List<Point> points, Color color, int brushSize) {
+        Graphics2D g = target.createGraphics();
+        g.setColor(color);
+        g.setStroke(brush(brushSize));
+        for (int i = 1; i < points.size(); i++) {
+            g.drawLine(points.get(i - 1).x, points.get(i - 1).y, points.get(i).x, points.get(i).y);
+        }
+        g.dispose();
+    }
+
+    // Draws straight into target with one Graphics2D for the whole stroke, telling beforeWrite about every
+    // area just before it is drawn over
+    public static Canvas inPlace(BufferedImage target, Consumer<Rectangle> beforeWrite) {
+        return new Canvas() {
+            private Graphics2D graphics;
+
+            @Override
+            public void draw(Rectangle area, Consumer<Graphics2D> painter) {
+                beforeWrite.accept(area);
+                if (graphics == null) {
+                    graphics = target.createGraphics();
+                }
+                painter.accept(graphics);
+            }
+
+            @Override
+            public void dispose() {
+                if (graphics != null) {
+                    graphics.dispose();
+                    graphics = null;
+                }
+            }
+        };
+    }
+
+    public boolean isDrawing() {
+        return canvas != null;
+    }
+
+    public void begin(Canvas target, Point start, Color color, int brushSize) {
+        end();
+        canvas = target;
+        this.color = color;
+        brush = brush(brushSize);
+        margin = brushSize / 2 + 2;
+        last = start;
+        bounds = new Rectangle(start);
+        awaitingPaintSince = 0;
+        segments = 0;
+        repaints = 0;
+        measured = 0;
+        totalLatencyMillis = 0;
+        maxLatencyMillis = 0;
+    }
+
+    // eventWhen is MouseEvent.getWhen()
+    public void dragTo(Point point, long eventWhen) {
+        if (canvas == null) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            oldestPendingEvent = eventWhen;
+        }
+        pending.add(point);
+        if (!flushQueued) {
+            flushQueued = true;
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    private void flush() {
+        flushQueued = false;
+        if (canvas == null || pending.isEmpty()) {
+            return;
+        }
+        Rectangle dirty = new Rectangle(last);
+        for (Point point : pending) {
+            dirty.add(point);
+        }
+        dirty.grow(margin, margin);
+        Point from = last;
+        canvas.draw(dirty, g -> {
+            g.setColor(color);
+            g.setStroke(brush);
+            Point previous = from;
+            for (Point point : pending) {
+                g.drawLine(previous.x, previous.y, point.x, point.y);
+                previous = point;
+            }
+        });
+        last = pending.get(pending.size() - 1);
+        segments += pending.size();
+        pending.clear();
+
+        bounds.add(dirty);
+        if (awaitingPaintSince == 0) {
+            awaitingPaintSince = oldestPendingEvent;
+        }
+        repaints++;
+        viewport.invalidateArea(dirty);
+    }
+
+    public void painted() {
+        if (awaitingPaintSince != 0) {
+            long latency = System.currentTimeMillis() - awaitingPaintSince;
+            awaitingPaintSince = 0;
+            measured++;
+            totalLatencyMillis += latency;
+            maxLatencyMillis = Math.max(maxLatencyMillis, latency);
+        }
+    }
+
+    // Draws what is still queued and returns the area the stroke covered, or null if no stroke was running
+    public Rectangle end() {
+        if (canvas == null) {
+            return null;
+        }
+        flush();
+        canvas.dispose();
+        canvas = null;
+        Rectangle covered = bounds;
+        bounds = null;
+        return covered;
+    }
+
+    public String statistics() {
+        return String.format("stroke: %d segments in %d repaints, input-to-pixel avg %.1f ms, max %d ms",
+                segments, repaints, measured == 0 ? 0.0 : (double) totalLatencyMillis / measured, maxLatencyMillis);
+    }
+}
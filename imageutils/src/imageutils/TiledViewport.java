@@ -0,0 +1,526 @@
+package imageutils;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Shows an image through a cache of display-compatible tiles. Every zoom level below 100% has its own
+// power-of-two level of the tile pyramid, built from the four tiles of the level below, so painting never
+// scales the full image. Only the tiles in the clip are drawn, and a change to part of the image drops just
+// the tiles showing that part. Ctrl + mouse wheel zooms around the cursor; put the viewport in a JScrollPane
+// to pan.
+// A coarse tile whose four children are not all cached is built on a background thread instead of the EDT,
+// since it may cover a large part of the image; a coarser cached tile, or the background, stands in for it
+// until it is ready.
+public class TiledViewport extends JComponent implements Scrollable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Where the viewport takes its pixels from
+    public interface TileSource {
+        int getWidth();
+
+        int getHeight();
+
+        int getTransparency();
+
+        // Draws the given area of the image at full resolution with its top left corner at (0, 0)
+        void drawArea(Graphics2D g, Rectangle area);
+    }
+
+    static final int TILE_SIZE = 256;
+
+    // Stands in for the children of an edge tile that lie outside the image, which are never drawn
+    private static final BufferedImage OUTSIDE = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+    private static final double MIN_ZOOM = 1.0 / 32;
+    private static final double MAX_ZOOM = 32;
+
+    private final long cacheBudget = Long.getLong("viewport.cacheMb", 256) << 20;
+
+    // Builds coarse tiles for every viewport, one at a time
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "viewport-tiles");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only used on the EDT
+    private TileSource source;
+    private double zoom = 1;
+    private final LinkedHashMap<Long, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private long cacheBytes;
+    // Tiles being built in the background; a job is dropped from here when its area changes meanwhile
+    private final Map<Long, TileJob> pending = new HashMap<>();
+    private BufferedImage preview;
+    private Rectangle previewArea;
+
+    public TiledViewport() {
+        setOpaque(true);
+        setBackground(Color.DARK_GRAY);
+        addMouseWheelListener(this::wheelMoved);
+    }
+
+    static TileSource imageSource(BufferedImage image) {
+        return new TileSource() {
+            @Override
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            @Override
+            public int getTransparency() {
+                return image.getTransparency();
+            }
+
+            @Override
+            public void drawArea(Graphics2D g, Rectangle area) {
+                g.drawImage(image, 0, 0, area.width, area.height, area.x, area.y, area.x + area.width, area.y + area.height, null);
+            }
+        };
+    }
+
+    // changed is the part of the image whose pixels differ from what is shown now: null for all of it, an
+    // empty rectangle when the new image is a copy of the shown one. May be called from any thread.
+    public void setImage(BufferedImage image, Rectangle changed) {
+        setSource(image == null ? null : imageSource(image), changed);
+    }
+
+    public void setSource(TileSource newSource, Rectangle changed) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> setSource(newSource, changed));
+            return;
+        }
+        boolean resized = source == null || newSource == null
+                || source.getWidth() != newSource.getWidth() || source.getHeight() != newSource.getHeight();
+        source = newSource;
+        if (resized || changed == null) {
+            tiles.clear();
+            cacheBytes = 0;
+            for (TileJob job : pending.values()) {
+                job.cancelled = true;
+            }
+            pending.clear();
+            revalidate();
+            repaint();
+        } else {
+            invalidateArea(changed);
+        }
+    }
+
+    // Drops the tiles showing area (in image coordinates) and repaints it. May be called from any thread.
+    public void invalidateArea(Rectangle area) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            Rectangle copy = new Rectangle(area);
+            SwingUtilities.invokeLater(() -> invalidateArea(copy));
+            return;
+        }
+        if (source == null || area.isEmpty()) {
+            return;
+        }
+        Iterator<Map.Entry<Long, BufferedImage>> iterator = tiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, BufferedImage> entry = iterator.next();
+            if (covered(entry.getKey()).intersects(area)) {
+                cacheBytes -= bytes(entry.getValue());
+                iterator.remove();
+            }
+        }
+        Iterator<TileJob> jobs = pending.values().iterator();
+        while (jobs.hasNext()) {
+            TileJob job = jobs.next();
+            if (covered(job.key).intersects(area)) {
+                job.cancelled = true;
+                jobs.remove();
+            }
+        }
+        repaint(toView(area));
+    }
+
+    // Shows image stretched over area (in image coordinates) on top of the tiles, for a quick low-resolution
+    // result before the real one is ready; null removes it. May be called from any thread.
+    public void setPreview(BufferedImage image, Rectangle area) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            Rectangle copy = area == null ? null : new Rectangle(area);
+            SwingUtilities.invokeLater(() -> setPreview(image, copy));
+            return;
+        }
+        if (previewArea != null) {
+            repaint(toView(previewArea));
+        }
+        preview = image;
+        previewArea = image == null ? null : new Rectangle(area);
+        if (previewArea != null) {
+            repaint(toView(previewArea));
+        }
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    // Keeps the image point under anchor (in view coordinates) where it is
+    void setZoom(double newZoom, Point anchor) {
+        newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, newZoom));
+        if (newZoom == zoom) {
+            return;
+        }
+        double imageX = anchor.x / zoom;
+        double imageY = anchor.y / zoom;
+        zoom = newZoom;
+        setSize(getPreferredSize());
+        revalidate();
+
+        if (getParent() instanceof JViewport) {
+            JViewport viewport = (JViewport) getParent();
+            Point position = viewport.getViewPosition();
+            int x = (int) Math.round(imageX * zoom) - (anchor.x - position.x);
+            int y = (int) Math.round(imageY * zoom) - (anchor.y - position.y);
+            viewport.setViewPosition(new Point(Math.max(0, x), Math.max(0, y)));
+        }
+        repaint();
+    }
+
+    public Point toImage(Point viewPoint) {
+        return new Point((int) Math.floor(viewPoint.x / zoom), (int) Math.floor(viewPoint.y / zoom));
+    }
+
+    // The part of the image inside the visible part of the viewport
+    public Rectangle visibleImageArea() {
+        if (source == null) {
+            return new Rectangle();
+        }
+        Rectangle visible = getVisibleRect();
+        Point from = toImage(visible.getLocation());
+        Point to = toImage(new Point(visible.x + visible.width - 1, visible.y + visible.height - 1));
+        return new Rectangle(from.x, from.y, to.x - from.x + 1, to.y - from.y + 1)
+                .intersection(new Rectangle(0, 0, source.getWidth(), source.getHeight()));
+    }
+
+    Rectangle toView(Rectangle area) {
+        int x = (int) Math.floor(area.x * zoom);
+        int y = (int) Math.floor(area.y * zoom);
+        return new Rectangle(x, y, (int) Math.ceil((area.x + area.width) * zoom) - x, (int) Math.ceil((area.y + area.height) * zoom) - y);
+    }
+
+    private void wheelMoved(MouseWheelEvent e) {
+        if ((e.getModifiersEx() & InputEvent.CTRL_DOWN_MASK) != 0) {
+            setZoom(zoom * Math.pow(1.25, -e.getPreciseWheelRotation()), e.getPoint());
+        } else if (getParent() != null) {
+            // A wheel listener swallows the events the scroll pane would scroll with
+            getParent().dispatchEvent(SwingUtilities.convertMouseEvent(this, e, getParent()));
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        Graphics2D g = (Graphics2D) graphics.create();
+        try {
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            g.setColor(getBackground());
+            g.fill(clip);
+            if (source == null) {
+                return;
+            }
+
+            // The coarsest level that still has at least one tile pixel per screen pixel
+            int level = 0;
+            while (zoom * (2 << level) <= 1) {
+                level++;
+            }
+            int span = TILE_SIZE << level;
+            cancelPending(level);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, zoom * (1 << level) >= 1
+                    ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR : RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+            Rectangle visible = new Rectangle(0, 0, source.getWidth(), source.getHeight()).intersection(
+                    new Rectangle(toImage(clip.getLocation()), new Dimension((int) Math.ceil(clip.width / zoom) + 1, (int) Math.ceil(clip.height / zoom) + 1)));
+            if (visible.isEmpty()) {
+                return;
+            }
+            // Tiles hidden behind an opaque preview are neither built nor drawn
+            Rectangle hidden = preview != null && preview.getTransparency() == Transparency.OPAQUE ? toView(previewArea) : null;
+            for (int row = visible.y / span; row <= (visible.y + visible.height - 1) / span; row++) {
+                for (int column = visible.x / span; column <= (visible.x + visible.width - 1) / span; column++) {
+                    Rectangle area = new Rectangle(column * span, row * span,
+                            Math.min(span, source.getWidth() - column * span), Math.min(span, source.getHeight() - row * span));
+                    Rectangle target = toView(area);
+                    if (hidden != null && hidden.contains(target.intersection(clip))) {
+                        continue;
+                    }
+                    BufferedImage tile = tile(level, column, row);
+                    if (tile != null) {
+                        g.drawImage(tile, target.x, target.y, target.width, target.height, null);
+                    } else {
+                        drawPlaceholder(g, level, column, row, target);
+                    }
+                }
+            }
+            if (preview != null) {
+                Rectangle target = toView(previewArea);
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(preview, target.x, target.y, target.width, target.height, null);
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    // The tile, or null while it is built in the background
+    private BufferedImage tile(int level, int column, int row) {
+        long key = key(level, column, row);
+        BufferedImage tile = tiles.get(key);
+        if (tile != null) {
+            return tile;
+        }
+
+        BufferedImage[] children = level == 0 ? null : cachedChildren(level, column, row);
+        if (children == null || !Arrays.asList(children).contains(null)) {
+            tile = render(source, getGraphicsConfiguration(), level, column, row,
+                    (childLevel, childColumn, childRow) -> children[(childRow & 1) * 2 + (childColumn & 1)]);
+            put(key, tile);
+            return tile;
+        }
+        if (!pending.containsKey(key)) {
+            TileJob job = new TileJob(key, source, getGraphicsConfiguration(), children);
+            pending.put(key, job);
+            BUILDER.execute(job);
+        }
+        return null;
+    }
+
+    // The cached children of a tile, null where one is missing; children outside the image count as cached
+    private BufferedImage[] cachedChildren(int level, int column, int row) {
+        BufferedImage[] children = new BufferedImage[4];
+        int childSpan = TILE_SIZE << (level - 1);
+        for (int i = 0; i < 4; i++) {
+            int childColumn = column * 2 + (i & 1);
+            int childRow = row * 2 + (i >> 1);
+            boolean inside = childColumn * childSpan < source.getWidth() && childRow * childSpan < source.getHeight();
+            children[i] = inside ? tiles.get(key(level - 1, childColumn, childRow)) : OUTSIDE;
+        }
+        return children;
+    }
+
+    private interface Children {
+        // null when the tile cannot be had, which abandons its parent
+        BufferedImage get(int level, int column, int row);
+    }
+
+    // Builds a tile from the source for level 0 and from its four children above that; null if a child was
+    // not to be had. Touches neither the cache nor the component, so it may run on any thread.
+    private static BufferedImage render(TileSource source, GraphicsConfiguration configuration,
+                                        int level, int column, int row, Children children) {
+        int scale = 1 << level;
+        int x = column * TILE_SIZE * scale;
+        int y = row * TILE_SIZE * scale;
+        int width = (Math.min(TILE_SIZE * scale, source.getWidth() - x) + scale - 1) / scale;
+        int height = (Math.min(TILE_SIZE * scale, source.getHeight() - y) + scale - 1) / scale;
+        BufferedImage tile = createTile(configuration, source, width, height);
+
+        Graphics2D g = tile.createGraphics();
+        try {
+            if (level == 0) {
+                source.drawArea(g, new Rectangle(x, y, width, height));
+            } else {
+                // Halving with bilinear filtering averages each 2x2 block of the level below
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                int half = TILE_SIZE / 2;
+                for (int dy = 0; dy < 2; dy++) {
+                    for (int dx = 0; dx < 2; dx++) {
+                        int childX = (column * 2 + dx) * TILE_SIZE * (scale / 2);
+                        int childY = (row * 2 + dy) * TILE_SIZE * (scale / 2);
+                        if (childX < source.getWidth() && childY < source.getHeight()) {
+                            BufferedImage child = children.get(level - 1, column * 2 + dx, row * 2 + dy);
+                            if (child == null) {
+                                return null;
+                            }
+                            g.drawImage(child, dx * half, dy * half, (child.getWidth() + 1) / 2, (child.getHeight() + 1) / 2, null);
+                        }
+                    }
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        return tile;
+    }
+
+    // Builds a coarse tile off the EDT. Children that were cached when it was queued are used as they are,
+    // the others are built from the source depth first and dropped once drawn into their parent, so a job
+    // holds at most a few tiles per level and never adds to the cache before it is done.
+    private final class TileJob implements Runnable {
+        final long key;
+        private final TileSource source;
+        private final GraphicsConfiguration configuration;
+        private final BufferedImage[] children;
+        // Set on the EDT once the result would be stale or is no longer wanted
+        volatile boolean cancelled;
+
+        TileJob(long key, TileSource source, GraphicsConfiguration configuration, BufferedImage[] children) {
+            this.key = key;
+            this.source = source;
+            this.configuration = configuration;
+            this.children = children;
+        }
+
+        @Override
+        public void run() {
+            BufferedImage tile = child(level(key), column(key), row(key));
+            if (tile != null) {
+                SwingUtilities.invokeLater(() -> {
+                    if (pending.remove(key, this)) {
+                        put(key, tile);
+                        repaint(toView(covered(key)));
+                    }
+                });
+            }
+        }
+
+        private BufferedImage child(int level, int column, int row) {
+            if (cancelled) {
+                return null;
+            }
+            if (level == level(key) - 1) {
+                BufferedImage known = children[(row & 1) * 2 + (column & 1)];
+                if (known != null) {
+                    return known;
+                }
+            }
+            return render(source, configuration, level, column, row, this::child);
+        }
+    }
+
+    // Jobs for another level than the one on screen are not worth finishing
+    private void cancelPending(int level) {
+        Iterator<TileJob> jobs = pending.values().iterator();
+        while (jobs.hasNext()) {
+            TileJob job = jobs.next();
+            if (level(job.key) != level) {
+                job.cancelled = true;
+                jobs.remove();
+            }
+        }
+    }
+
+    // Stretches the part of the nearest coarser cached tile that covers a missing tile over target
+    private void drawPlaceholder(Graphics2D g, int level, int column, int row, Rectangle target) {
+        int x = column * (TILE_SIZE << level);
+        int y = row * (TILE_SIZE << level);
+        int width = Math.min(TILE_SIZE << level, source.getWidth() - x);
+        int height = Math.min(TILE_SIZE << level, source.getHeight() - y);
+        for (int coarser = level + 1; (TILE_SIZE << coarser) < 2 * Math.max(source.getWidth(), source.getHeight()); coarser++) {
+            int shift = coarser - level;
+            BufferedImage tile = tiles.get(key(coarser, column >> shift, row >> shift));
+            if (tile != null) {
+                int fromX = (x - (column >> shift) * (TILE_SIZE << coarser)) >> coarser;
+                int fromY = (y - (row >> shift) * (TILE_SIZE << coarser)) >> coarser;
+                int toX = Math.min(tile.getWidth(), fromX + Math.max(1, width >> coarser));
+                int toY = Math.min(tile.getHeight(), fromY + Math.max(1, height >> coarser));
+                g.drawImage(tile, target.x, target.y, target.x + target.width, target.y + target.height, fromX, fromY, toX, toY, null);
+                return;
+            }
+        }
+    }
+
+    private void put(long key, BufferedImage tile) {
+        BufferedImage replaced = tiles.put(key, tile);
+        if (replaced != null) {
+            cacheBytes -= bytes(replaced);
+        }
+        cacheBytes += bytes(tile);
+        Iterator<BufferedImage> eldest = tiles.values().iterator();
+        while (cacheBytes > cacheBudget && eldest.hasNext()) {
+            BufferedImage evicted = eldest.next();
+            if (evicted != tile) {
+                cacheBytes -= bytes(evicted);
+                eldest.remove();
+            }
+        }
+    }
+
+    private static BufferedImage createTile(GraphicsConfiguration configuration, TileSource source, int width, int height) {
+        if (configuration != null) {
+            return configuration.createCompatibleImage(width, height, source.getTransparency());
+        }
+        return new BufferedImage(width, height, source.getTransparency() == Transparency.OPAQUE
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    // The part of the image a tile shows, at full resolution
+    private static Rectangle covered(long key) {
+        int span = TILE_SIZE << level(key);
+        return new Rectangle(column(key) * span, row(key) * span, span, span);
+    }
+
+    private static long bytes(BufferedImage tile) {
+        return 4L * tile.getWidth() * tile.getHeight();
+    }
+
+    private static long key(int level, int column, int row) {
+        return (long) level << 48 | (long) row << 24 | column;
+    }
+
+    private static int level(long key) {
+        return (int) (key >>> 48);
+    }
+
+    private static int row(long key) {
+        return (int) (key >>> 24) & 0xFFFFFF;
+    }
+
+    private static int column(long key) {
+        return (int) key & 0xFFFFFF;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (source == null) {
+            return new Dimension(0, 0);
+        }
+        return new Dimension((int) Math.ceil(source.getWidth() * zoom), (int) Math.ceil(source.getHeight() * zoom));
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return 32;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.HORIZONTAL ? visibleRect.width : visibleRect.height;
+    }
+
+    // Fill the scroll pane when the image is smaller than it, so the whole area is painted and takes clicks
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+    }
+}
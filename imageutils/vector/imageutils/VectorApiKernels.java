@@ -0,0 +1,94 @@
+package imageutils;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// The point kernels on the Vector API, as many pixels per instruction as the widest vectors the CPU has.
+// Loaded by SimdKernels; see there for how to build and run it. Every kernel gives the same bits as the
+// table driven loop it replaces, and finishes the part of a row that does not fill a vector one pixel at a time.
+final class VectorApiKernels extends SimdKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    // Luminance runs in ints as 299 * red + 587 * green + 114 * blue, divided by 1000. That matches the double
+    // formula except where the sum is a multiple of 1000 and the doubles come out just below it. For those
+    // sums blue is fixed by red and green, so this table, indexed by red << 8 | green, holds 1 where the double
+    // result is one less.
+    private static final int[] ROUNDED_DOWN = new int[1 << 16];
+
+    static {
+        for (int red = 0; red < 256; red++) {
+            for (int green = 0; green < 256; green++) {
+                // 114 * blue = -(299 * red + 587 * green) mod 1000 needs an even right side, and then
+                // blue = 193 * side / 2 mod 500, 193 being the inverse of 57 mod 500
+                int side = Math.floorMod(-(299 * red + 587 * green), 1000);
+                int blue = side / 2 * 193 % 500;
+                if (side % 2 == 0 && blue < 256
+                        && (int) (0.299 * red + 0.587 * green + 0.114 * blue) != (299 * red + 587 * green + 114 * blue) / 1000) {
+                    ROUNDED_DOWN[red << 8 | green] = 1;
+                }
+            }
+        }
+    }
+
+    @Override
+    void invert(int[] pixels, int from, int to) {
+        int i = from;
+        for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+            IntVector.fromArray(INTS, pixels, i).lanewise(VectorOperators.XOR, 0x00FFFFFF).intoArray(pixels, i);
+        }
+        for (; i < to; i++) {
+            pixels[i] ^= 0x00FFFFFF;
+        }
+    }
+
+    @Override
+    void addChannels(int[] pixels, int from, int to, int offsets) {
+        // Byte lanes wrap on their own, so every channel is added modulo 256 without masking
+        ByteVector add = IntVector.broadcast(INTS, offsets & 0x00FFFFFF).reinterpretAsBytes();
+        int i = from;
+        for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+            IntVector.fromArray(INTS, pixels, i).reinterpretAsBytes().add(add).reinterpretAsInts()
+                    .or(0xFF000000).intoArray(pixels, i);
+        }
+        for (; i < to; i++) {
+            int argb = pixels[i];
+            pixels[i] = 0xFF000000 | ((argb + (offsets & 0xFF0000)) & 0xFF0000)
+                    | ((argb + (offsets & 0xFF00)) & 0xFF00) | ((argb + offsets) & 0xFF);
+        }
+    }
+
+    @Override
+    void luminance(int[] pixels, int from, int to, int alphaMask, int alphaBits) {
+        int[] indices = new int[INTS.length()];
+        int i = from;
+        for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length()) {
+            IntVector argb = IntVector.fromArray(INTS, pixels, i);
+            IntVector red = argb.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector green = argb.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector weighted = red.mul(299).add(green.mul(587)).add(argb.and(0xFF).mul(114));
+            // weighted / 1000 as (weighted / 8) / 125, the second division a multiply and shift that is exact
+            // below 59074
+            IntVector gray = weighted.lanewise(VectorOperators.LSHR, 3).mul(33555).lanewise(VectorOperators.LSHR, 22);
+            VectorMask<Integer> exact = gray.mul(1000).eq(weighted);
+            if (exact.anyTrue()) {
+                red.lanewise(VectorOperators.LSHL, 8).or(green).intoArray(indices, 0);
+                gray = gray.sub(IntVector.fromArray(INTS, ROUNDED_DOWN, 0, indices, 0), exact);
+            }
+            argb.and(alphaMask).or(alphaBits).or(gray.mul(0x010101)).intoArray(pixels, i);
+        }
+        for (; i < to; i++) {
+            int argb = pixels[i];
+            int gray = (int) (0.299 * ((argb >> 16) & 0xFF) + 0.587 * ((argb >> 8) & 0xFF) + 0.114 * (argb & 0xFF));
+            pixels[i] = (argb & alphaMask) | alphaBits | (gray * 0x010101);
+        }
+    }
+
+    @Override
+    public String describe() {
+        return String.format("Vector API, %d int lanes", INTS.length());
+    }
+}
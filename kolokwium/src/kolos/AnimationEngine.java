@@ -0,0 +1,91 @@
+package kolos;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Fixed timestep animation on a single scheduler thread. Every tick advances the whole world by the same
+// amount of time, however late the scheduler wakes up: elapsed time is collected and spent in whole ticks,
+// and a frame in which at least one tick ran ends with exactly one call to frameDone (a repaint). Ticks run
+// while holding lock, so other threads can change the world between them.
+final class AnimationEngine {
+
+    interface World {
+        // Advances everything by one tick
+        void tick();
+    }
+
+    static final int TICKS_PER_SECOND = 60;
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(1) / TICKS_PER_SECOND;
+    // After a stall (a suspended laptop, a long GC) the world skips ahead instead of running all the missed ticks
+    private static final int MAX_TICKS_PER_FRAME = 5;
+
+    private final World world;
+    private final Object lock;
+    private final Runnable frameDone;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "animation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Owned by the scheduler thread
+    private long last;
+    private long pending;
+
+    private volatile long ticks;
+    private volatile long frames;
+    private volatile long skippedTicks;
+    private volatile long worstFrameNanos;
+
+    AnimationEngine(World world, Object lock, Runnable frameDone) {
+        this.world = world;
+        this.lock = lock;
+        this.frameDone = frameDone;
+    }
+
+    void start() {
+        last = System.nanoTime();
+        scheduler.scheduleAtFixedRate(this::frame, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void frame() {
+        long now = System.nanoTime();
+        pending += now - last;
+        last = now;
+
+        int due = (int) Math.min(pending / TICK_NANOS, MAX_TICKS_PER_FRAME);
+        if (due == 0) {
+            return;
+        }
+        try {
+            synchronized (lock) {
+                for (int i = 0; i < due; i++) {
+                    world.tick();
+                }
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule and freeze the animation for good
+            e.printStackTrace();
+        }
+        pending -= due * TICK_NANOS;
+        if (pending >= TICK_NANOS) {
+            skippedTicks += pending / TICK_NANOS;
+            pending %= TICK_NANOS;
+        }
+        ticks += due;
+        frames++;
+        worstFrameNanos = Math.max(worstFrameNanos, System.nanoTime() - now);
+        frameDone.run();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ticks in %d frames, %d skipped, slowest frame %.2f ms",
+                ticks, frames, skippedTicks, worstFrameNanos / 1e6);
+    }
+}
@@ -0,0 +1,52 @@
+package kolos;
+
+import java.util.Random;
+
+// Time of one animation tick against the number of circles, for the 16.7 ms a frame has at 60 fps.
+// Usage: CircleBenchmark [counts...], default 1000 10000 100000 1000000
+class CircleBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int RADIUS = 30;
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURED_NANOS = 1_000_000_000L;
+
+    public static void main(String[] args) {
+        int[] counts = args.length == 0 ? new int[]{1000, 10_000, 100_000, 1_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            counts[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.printf("%10s %12s %12s %12s%n", "circles", "ms/tick", "ns/circle", "60 fps load");
+        for (int count : counts) {
+            CircleStore store = fill(count);
+            run(store, WARMUP_NANOS);
+            long start = System.nanoTime();
+            int ticks = run(store, MEASURED_NANOS);
+            double millis = (System.nanoTime() - start) / 1e6 / ticks;
+            System.out.printf("%10d %12.3f %12.2f %11.1f%%%n", count, millis, millis * 1e6 / count,
+                    millis * AnimationEngine.TICKS_PER_SECOND / 10);
+        }
+    }
+
+    static CircleStore fill(int count) {
+        Random random = new Random(42);
+        CircleStore store = new CircleStore();
+        for (int i = 0; i < count; i++) {
+            store.add(RADIUS + random.nextFloat() * (WIDTH - 2 * RADIUS), RADIUS + random.nextFloat() * (HEIGHT - 2 * RADIUS),
+                    random.nextFloat() * 10 - 5, random.nextFloat() * 10 - 5, RADIUS);
+        }
+        return store;
+    }
+
+    private static int run(CircleStore store, long nanos) {
+        long end = System.nanoTime() + nanos;
+        int ticks = 0;
+        do {
+            store.move(WIDTH, HEIGHT);
+            ticks++;
+        } while (System.nanoTime() < end);
+        return ticks;
+    }
+}
@@ -0,0 +1,62 @@
+package kolos;
+
+// What one frame shows: a copy of every circle's position, radius and color, taken under the store's lock at
+// the end of a tick and never changed afterwards, so painting needs no lock and never sees half a tick. The
+// circles are sorted by color, circles [start(c), end(c)) having palette color c, so the renderer sets each
+// color once.
+final class CircleFrame {
+
+    static final CircleFrame EMPTY = new CircleFrame(new float[0], new float[0], new float[0], new int[CircleRenderer.PALETTE.length]);
+
+    final float[] x;
+    final float[] y;
+    final float[] radius;
+    private final int[] ends;
+
+    private CircleFrame(float[] x, float[] y, float[] radius, int[] ends) {
+        this.x = x;
+        this.y = y;
+        this.radius = radius;
+        this.ends = ends;
+    }
+
+    // Call holding the store's lock
+    static CircleFrame of(CircleStore circles) {
+        int size = circles.size();
+        int[] ends = new int[CircleRenderer.PALETTE.length];
+        byte[] color = circles.color;
+        for (int i = 0; i < size; i++) {
+            ends[color[i]]++;
+        }
+        int[] next = new int[ends.length];
+        for (int c = 1; c < ends.length; c++) {
+            next[c] = next[c - 1] + ends[c - 1];
+        }
+        for (int c = 0; c < ends.length; c++) {
+            ends[c] += next[c];
+        }
+
+        float[] x = new float[size];
+        float[] y = new float[size];
+        float[] radius = new float[size];
+        for (int i = 0; i < size; i++) {
+            int at = next[color[i]]++;
+            x[at] = circles.x[i];
+            y[at] = circles.y[i];
+            radius[at] = circles.radius[i];
+        }
+        return new CircleFrame(x, y, radius, ends);
+    }
+
+    int size() {
+        return x.length;
+    }
+
+    int start(int color) {
+        return color == 0 ? 0 : ends[color - 1];
+    }
+
+    int end(int color) {
+        return ends[color];
+    }
+}
@@ -0,0 +1,127 @@
+package kolos;
+
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+// Draws a CircleFrame in one pass into a back buffer kept between paints, then copies the buffer to the
+// screen; a paint that shows the same frame again, as after the window is uncovered, only copies.
+// Circles are drawn a palette color at a time. Up to ANTIALIAS_LIMIT circles (-Dcircles.antialiasLimit,
+// default 250, some 14 ms in software at radius 30) they are antialiased shapes. Past it they are filled as
+// runs of pixels written straight into the buffer's int array, since a fillOval call costs microseconds
+// whatever the size of the circle and 50k of them take far longer than a frame.
+// The buffer is an int RGB image and not a VolatileImage because only the former can be written as pixels.
+final class CircleRenderer {
+
+    static final Color[] PALETTE = {
+            new Color(0x1F77B4), new Color(0xFF7F0E), new Color(0x2CA02C), new Color(0xD62728),
+            new Color(0x9467BD), new Color(0x8C564B), new Color(0xE377C2), new Color(0x17BECF)
+    };
+
+    static final int ANTIALIAS_LIMIT = Integer.getInteger("circles.antialiasLimit", 250);
+
+    private BufferedImage back;
+    private int[] pixels;
+    private CircleFrame rendered;
+    private Color renderedBackground;
+    // Per radius, the half width of the circle's pixel run in each row, counted outwards from the centre
+    private int[][] spans = new int[0][];
+
+    private long frames;
+    private long renderNanos;
+    private long worstRenderNanos;
+
+    void paint(Graphics g, int width, int height, CircleFrame frame, Color background) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (back == null || back.getWidth() != width || back.getHeight() != height) {
+            back = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) back.getRaster().getDataBuffer()).getData();
+            rendered = null;
+        }
+        if (frame != rendered || !background.equals(renderedBackground)) {
+            long start = System.nanoTime();
+            render(frame, background);
+            long nanos = System.nanoTime() - start;
+            frames++;
+            renderNanos += nanos;
+            worstRenderNanos = Math.max(worstRenderNanos, nanos);
+            rendered = frame;
+            renderedBackground = background;
+        }
+        g.drawImage(back, 0, 0, null);
+    }
+
+    private void render(CircleFrame frame, Color background) {
+        if (frame.size() <= ANTIALIAS_LIMIT) {
+            Graphics2D g = back.createGraphics();
+            try {
+                g.setColor(background);
+                g.fillRect(0, 0, back.getWidth(), back.getHeight());
+                g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                Ellipse2D.Float circle = new Ellipse2D.Float();
+                for (int c = 0; c < PALETTE.length; c++) {
+                    g.setColor(PALETTE[c]);
+                    for (int i = frame.start(c); i < frame.end(c); i++) {
+                        float r = frame.radius[i];
+                        circle.setFrame(frame.x[i] - r, frame.y[i] - r, 2 * r, 2 * r);
+                        g.fill(circle);
+                    }
+                }
+            } finally {
+                g.dispose();
+            }
+            return;
+        }
+
+        int width = back.getWidth();
+        int height = back.getHeight();
+        int[] pixels = this.pixels;
+        Arrays.fill(pixels, background.getRGB());
+        for (int c = 0; c < PALETTE.length; c++) {
+            int rgb = PALETTE[c].getRGB();
+            for (int i = frame.start(c); i < frame.end(c); i++) {
+                int r = Math.round(frame.radius[i]);
+                int cx = Math.round(frame.x[i]);
+                int cy = Math.round(frame.y[i]);
+                if (cx + r <= 0 || cx - r >= width || cy + r <= 0 || cy - r >= height) {
+                    continue;
+                }
+                int[] span = spans(r);
+                for (int y = Math.max(0, cy - r), toY = Math.min(height, cy + r); y < toY; y++) {
+                    int half = span[y >= cy ? y - cy : cy - 1 - y];
+                    int fromX = Math.max(0, cx - half);
+                    int toX = Math.min(width, cx + half);
+                    if (fromX < toX) {
+                        Arrays.fill(pixels, y * width + fromX, y * width + toX, rgb);
+                    }
+                }
+            }
+        }
+    }
+
+    private int[] spans(int radius) {
+        if (radius >= spans.length) {
+            spans = Arrays.copyOf(spans, radius + 1);
+        }
+        if (spans[radius] == null) {
+            int[] span = new int[radius];
+            for (int dy = 0; dy < radius; dy++) {
+                // Measured from the middle of the row, like the shapes of the antialiased path
+                double middle = dy + 0.5;
+                span[dy] = (int) Math.round(Math.sqrt((double) radius * radius - middle * middle));
+            }
+            spans[radius] = span;
+        }
+        return spans[radius];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d frames rendered, %.2f ms average, %.2f ms slowest",
+                frames, frames == 0 ? 0 : renderNanos / 1e6 / frames, worstRenderNanos / 1e6);
+    }
+}
@@ -0,0 +1,128 @@
+package kolos;
+
+import java.util.Arrays;
+
+// Circles as parallel primitive arrays instead of an object each, so moving 100k of them walks a few
+// contiguous arrays rather than chasing 100k pointers. Circle i is index i in every array; remove() moves the
+// last circle into the hole, so an index is only good until the next removal. Not thread safe: the panel
+// guards a store with its own lock.
+final class CircleStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Centre, velocity in pixels per tick, radius and index into CircleRenderer.PALETTE; valid up to size
+    float[] x = new float[INITIAL_CAPACITY];
+    float[] y = new float[INITIAL_CAPACITY];
+    float[] vx = new float[INITIAL_CAPACITY];
+    float[] vy = new float[INITIAL_CAPACITY];
+    float[] radius = new float[INITIAL_CAPACITY];
+    byte[] color = new byte[INITIAL_CAPACITY];
+    boolean[] moving = new boolean[INITIAL_CAPACITY];
+
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    // Appends a moving circle of the first palette color and returns its index, amortised O(1)
+    int add(float x, float y, float vx, float vy, float radius) {
+        return add(x, y, vx, vy, radius, 0);
+    }
+
+    int add(float x, float y, float vx, float vy, float radius, int color) {
+        if (color < 0 || color >= CircleRenderer.PALETTE.length) {
+            throw new IllegalArgumentException("no palette color " + color);
+        }
+        if (size == this.x.length) {
+            grow();
+        }
+        int i = size++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+        this.radius[i] = radius;
+        this.color[i] = (byte) color;
+        moving[i] = true;
+        return i;
+    }
+
+    // O(1): the last circle takes the place of the removed one
+    void remove(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("circle " + index + " of " + size);
+        }
+        int last = --size;
+        x[index] = x[last];
+        y[index] = y[last];
+        vx[index] = vx[last];
+        vy[index] = vy[last];
+        radius[index] = radius[last];
+        color[index] = color[last];
+        moving[index] = moving[last];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = x.length + (x.length >> 1);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        color = Arrays.copyOf(color, capacity);
+        moving = Arrays.copyOf(moving, capacity);
+    }
+
+    // The circle containing the point that is drawn on top, or -1. Frames draw a color at a time in palette
+    // order and each color's circles by index, so that is the highest color and, within it, the highest index.
+    int indexAt(float px, float py) {
+        int top = -1;
+        for (int i = size - 1; i >= 0; i--) {
+            if (top >= 0 && color[i] <= color[top]) {
+                continue;
+            }
+            float dx = px - x[i];
+            float dy = py - y[i];
+            if (dx * dx + dy * dy <= radius[i] * radius[i]) {
+                top = i;
+            }
+        }
+        return top;
+    }
+
+    // One tick of movement for every moving circle, bouncing off the edges of a width x height area
+    void move(float width, float height) {
+        move(0, size, width, height);
+    }
+
+    // The same for circles [from, to) only; runs concurrently with calls for other circles
+    void move(int from, int to, float width, float height) {
+        float[] x = this.x;
+        float[] y = this.y;
+        float[] vx = this.vx;
+        float[] vy = this.vy;
+        float[] radius = this.radius;
+        boolean[] moving = this.moving;
+        for (int i = from; i < to; i++) {
+            if (!moving[i]) {
+                continue;
+            }
+            float r = radius[i];
+            float nx = x[i] + vx[i];
+            float ny = y[i] + vy[i];
+            if (nx < r && vx[i] < 0 || nx > width - r && vx[i] > 0) {
+                vx[i] = -vx[i];
+            }
+            if (ny < r && vy[i] < 0 || ny > height - r && vy[i] > 0) {
+                vy[i] = -vy[i];
+            }
+            x[i] = nx;
+            y[i] = ny;
+        }
+    }
+}
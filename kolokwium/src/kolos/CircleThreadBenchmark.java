@@ -0,0 +1,105 @@
+package kolos;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Runs the animation engine with the circles moved by the engine thread, by a virtual thread each or by a
+// platform thread each, and reports memory and frame jitter. Run each mode in a JVM of its own, so one mode's
+// threads and garbage do not show up in the next one's numbers.
+// Usage: CircleThreadBenchmark engine|virtual|platform [circles] [seconds], default 10000 circles for 10 s
+class CircleThreadBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: CircleThreadBenchmark engine|virtual|platform [circles] [seconds]");
+            System.exit(2);
+        }
+        String name = args[0].toLowerCase(Locale.ROOT);
+        CircleThreads.Mode mode;
+        switch (name) {
+            case "engine":
+                mode = null;
+                break;
+            case "virtual":
+                mode = CircleThreads.Mode.VIRTUAL;
+                break;
+            case "platform":
+                mode = CircleThreads.Mode.PLATFORM;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown mode " + args[0]);
+        }
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        CircleStore circles = CircleBenchmark.fill(count);
+        CircleThreads threads = mode == null ? null : new CircleThreads(mode, circles);
+        long[] frameTimes = new long[seconds * AnimationEngine.TICKS_PER_SECOND * 2];
+        int[] frames = new int[1];
+        AnimationEngine engine = new AnimationEngine(() -> {
+            if (threads == null) {
+                circles.move(WIDTH, HEIGHT);
+            } else {
+                threads.tick(WIDTH, HEIGHT);
+            }
+        }, circles, () -> {
+            if (frames[0] < frameTimes.length) {
+                frameTimes[frames[0]++] = System.nanoTime();
+            }
+        });
+
+        long baseline = residentKb();
+        engine.start();
+        // The first ticks start the threads
+        Thread.sleep(1000);
+        int from = frames[0];
+        Thread.sleep(seconds * 1000L);
+        int to = frames[0];
+        System.gc();
+        long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+        long resident = residentKb();
+        int liveThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        engine.stop();
+
+        double[] intervals = new double[Math.max(0, to - from - 1)];
+        for (int i = 0; i < intervals.length; i++) {
+            intervals[i] = (frameTimes[from + i + 1] - frameTimes[from + i]) / 1e6;
+        }
+        Arrays.sort(intervals);
+        double mean = Arrays.stream(intervals).average().orElse(Double.NaN);
+        double deviation = Math.sqrt(Arrays.stream(intervals).map(interval -> (interval - mean) * (interval - mean)).average().orElse(Double.NaN));
+
+        System.out.printf("%s, %d circles: %s%n", name, count, threads == null ? "engine thread" : threads);
+        System.out.printf("  platform threads %d, heap after gc %.1f MB, resident %.1f MB (%+.1f MB since start)%n",
+                liveThreads, heap / 1048576.0, resident / 1024.0, (resident - baseline) / 1024.0);
+        System.out.printf("  %d frames in %d s, interval mean %.2f ms, deviation %.2f ms, p99 %.2f ms, max %.2f ms (target %.2f ms)%n",
+                intervals.length + 1, seconds, mean, deviation, percentile(intervals, 0.99),
+                intervals.length == 0 ? Double.NaN : intervals[intervals.length - 1], 1000.0 / AnimationEngine.TICKS_PER_SECOND);
+        System.out.println("  " + engine);
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        return sorted.length == 0 ? Double.NaN : sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+
+    // Resident set size from /proc, or 0 where there is none
+    private static long residentKb() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return 0;
+    }
+}
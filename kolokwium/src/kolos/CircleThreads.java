@@ -0,0 +1,149 @@
+package kolos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The one-task-per-circle model, made as cheap as it can be: slot i of the store is moved by a loop of its own,
+// on a virtual thread or a platform thread, and the loops wait on a shared tick barrier instead of sleeping on
+// their own. tick() releases every loop through a Phaser and waits until all of them have moved their circle,
+// so the engine still repaints once per finished tick. A Phaser takes at most 65535 parties, so the loops are
+// spread over phasers of GROUP_SIZE; the thread calling tick() is one more party of each, which also keeps a
+// group from finishing a phase, and blocking register(), before tick() arrives.
+// Thread.ofVirtual() came with Java 21 and is looked up at run time; where it is missing, VIRTUAL falls back
+// to platform threads. Slots a thread could not be started for are moved by the thread calling tick().
+final class CircleThreads {
+
+    enum Mode {
+        VIRTUAL, PLATFORM
+    }
+
+    private static final int GROUP_SIZE = 4096;
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+    private final Mode mode;
+    private final CircleStore circles;
+    private final ThreadFactory factory;
+    private final List<Phaser> groups = new ArrayList<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    // Written by the thread calling tick() before it releases the loops, read by the loops after
+    private volatile boolean stopped;
+    private float width;
+    private float height;
+    // Slots [0, started) have a loop
+    private int started;
+    private boolean startFailed;
+
+    CircleThreads(Mode mode, CircleStore circles) {
+        this.mode = mode;
+        this.circles = circles;
+        ThreadFactory platform = task -> {
+            Thread thread = new Thread(task, "circle");
+            thread.setDaemon(true);
+            return thread;
+        };
+        factory = mode == Mode.VIRTUAL && VIRTUAL_THREADS != null ? VIRTUAL_THREADS : platform;
+    }
+
+    static boolean isVirtualAvailable() {
+        return VIRTUAL_THREADS != null;
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            // Before Java 21, or 19 and 20 without --enable-preview
+            return null;
+        }
+    }
+
+    // Loops running right now
+    int threads() {
+        return running.get();
+    }
+
+    // Moves every circle by one tick; the caller holds the lock guarding circles
+    void tick(int width, int height) {
+        if (stopped) {
+            throw new IllegalStateException("stopped");
+        }
+        this.width = width;
+        this.height = height;
+        int size = circles.size();
+        // Loops of slots past the end leave at this tick
+        started = Math.min(started, size);
+        while (started < size && !startFailed) {
+            startLoop(started);
+        }
+
+        // Starts the tick in every group, then waits for each to finish it. A second arrival before the first
+        // phase is over would count towards that phase.
+        int[] phases = new int[groups.size()];
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = groups.get(i).arrive();
+        }
+        circles.move(started, size, width, height);
+        for (int i = 0; i < phases.length; i++) {
+            groups.get(i).awaitAdvance(phases[i]);
+            groups.get(i).arriveAndAwaitAdvance();
+        }
+    }
+
+    private void startLoop(int slot) {
+        Phaser group = groups.isEmpty() ? null : groups.get(groups.size() - 1);
+        if (group == null || group.getRegisteredParties() > GROUP_SIZE) {
+            group = new Phaser(1);
+            groups.add(group);
+        }
+        group.register();
+        Phaser phaser = group;
+        Thread thread = factory.newThread(() -> run(slot, phaser));
+        try {
+            thread.start();
+            running.incrementAndGet();
+            started++;
+        } catch (OutOfMemoryError e) {
+            // Out of native threads: the rest of the circles are moved by tick() itself
+            phaser.arriveAndDeregister();
+            startFailed = true;
+            System.err.println("could not start more than " + started + " " + mode + " circle threads: " + e.getMessage());
+        }
+    }
+
+    private void run(int slot, Phaser phaser) {
+        try {
+            while (true) {
+                phaser.arriveAndAwaitAdvance();
+                // Leaving counts as arriving at the end of the tick
+                if (stopped || slot >= circles.size()) {
+                    return;
+                }
+                circles.move(slot, slot + 1, width, height);
+                phaser.arriveAndAwaitAdvance();
+            }
+        } finally {
+            running.decrementAndGet();
+            phaser.arriveAndDeregister();
+        }
+    }
+
+    // Lets every loop finish; call it where tick() would be called, holding the same lock
+    void stop() {
+        stopped = true;
+        for (Phaser group : groups) {
+            group.arriveAndDeregister();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d %s circle threads%s", running.get(),
+                factory == VIRTUAL_THREADS ? "virtual" : "platform",
+                mode == Mode.VIRTUAL && VIRTUAL_THREADS == null ? " (virtual threads need Java 21)" : "");
+    }
+}
@@ -0,0 +1,73 @@
+package kolos;
+
+import java.util.Random;
+
+// Tick time with collisions against the number of circles, the grid against testing every pair. The area
+// grows with the count so the circles always cover the same share of it, as they would on a screen sized to
+// them; the grid's time per circle should then stay about flat while the pairwise time grows with the count.
+// Usage: CollisionBenchmark [counts...], default 1000 10000 100000 1000000
+class CollisionBenchmark {
+
+    private static final int RADIUS = 30;
+    // Share of the area covered by circles
+    private static final double COVERAGE = 0.2;
+    // Pairwise testing past this takes seconds per tick
+    private static final int MAX_PAIRWISE = 20_000;
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURED_NANOS = 1_000_000_000L;
+
+    public static void main(String[] args) {
+        int[] counts = args.length == 0 ? new int[]{1000, 10_000, 100_000, 1_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            counts[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.printf("%10s %12s %12s %14s %14s%n", "circles", "grid ms", "ns/circle", "pairwise ms", "ns/circle");
+        for (int count : counts) {
+            int side = (int) Math.sqrt(count * Math.PI * RADIUS * RADIUS / COVERAGE);
+            double grid = measure(fill(count, side), side, true);
+            double pairwise = count > MAX_PAIRWISE ? Double.NaN : measure(fill(count, side), side, false);
+            System.out.printf("%10d %12.3f %12.1f %14.3f %14.1f%n", count, grid, grid * 1e6 / count,
+                    pairwise, pairwise * 1e6 / count);
+        }
+    }
+
+    private static CircleStore fill(int count, int side) {
+        Random random = new Random(42);
+        CircleStore store = new CircleStore();
+        for (int i = 0; i < count; i++) {
+            store.add(RADIUS + random.nextFloat() * (side - 2 * RADIUS), RADIUS + random.nextFloat() * (side - 2 * RADIUS),
+                    random.nextFloat() * 10 - 5, random.nextFloat() * 10 - 5, RADIUS);
+        }
+        return store;
+    }
+
+    // Milliseconds per tick
+    private static double measure(CircleStore store, int side, boolean useGrid) {
+        CollisionGrid grid = new CollisionGrid(2 * RADIUS);
+        run(store, grid, side, useGrid, WARMUP_NANOS);
+        long start = System.nanoTime();
+        int ticks = run(store, grid, side, useGrid, MEASURED_NANOS);
+        return (System.nanoTime() - start) / 1e6 / ticks;
+    }
+
+    private static int run(CircleStore store, CollisionGrid grid, int side, boolean useGrid, long nanos) {
+        long end = System.nanoTime() + nanos;
+        int ticks = 0;
+        do {
+            store.move(side, side);
+            if (useGrid) {
+                grid.update(store, side, side);
+                grid.resolve(store);
+            } else {
+                for (int i = 0; i < store.size(); i++) {
+                    for (int j = i + 1; j < store.size(); j++) {
+                        grid.collide(store, i, j);
+                    }
+                }
+            }
+            ticks++;
+        } while (System.nanoTime() < end);
+        return ticks;
+    }
+}
@@ -0,0 +1,227 @@
+package kolos;
+
+import java.util.Arrays;
+
+// Broad phase for circle collisions: a uniform grid with cells at least one diameter wide, so two circles can
+// only touch if their cells are the same or adjacent. Each cell keeps its circles in a doubly linked list
+// threaded through int arrays; update() relinks only the circles that changed cell since the last tick, which
+// after a small move is a few percent of them. resolve() checks each cell against itself and four of its
+// neighbours, so every nearby pair is tested once, and bounces the overlapping ones apart.
+// Indices are CircleStore indices: call remove() before removing the circle from the store.
+final class CollisionGrid {
+
+    private static final int NONE = -1;
+
+    private float cellSize;
+    private int columns;
+    private int rows;
+    private int[] head = new int[0];
+
+    // Per circle, valid up to tracked
+    private int[] cellOf = new int[0];
+    private int[] next = new int[0];
+    private int[] previous = new int[0];
+    private int tracked;
+
+    private long relinked;
+    private long tested;
+    private long collisions;
+
+    CollisionGrid(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    // Relinks circles that moved to another cell and links new ones. A change of area or a circle too large
+    // for the cells relinks all of them.
+    void update(CircleStore circles, int width, int height) {
+        int size = circles.size();
+        float maxRadius = 0;
+        for (int i = 0; i < size; i++) {
+            maxRadius = Math.max(maxRadius, circles.radius[i]);
+        }
+        int newColumns = Math.max(1, (int) Math.ceil(width / cellSize));
+        int newRows = Math.max(1, (int) Math.ceil(height / cellSize));
+        if (2 * maxRadius > cellSize || newColumns != columns || newRows != rows) {
+            cellSize = Math.max(cellSize, 2 * maxRadius);
+            rebuild(circles, width, height);
+            return;
+        }
+
+        if (cellOf.length < size) {
+            grow(circles.x.length);
+        }
+        for (int i = tracked; i < size; i++) {
+            cellOf[i] = NONE;
+        }
+        // Circles removed without remove(), by clearing the store
+        for (int i = size; i < tracked; i++) {
+            if (cellOf[i] != NONE) {
+                unlink(i);
+            }
+        }
+        tracked = size;
+
+        float[] x = circles.x;
+        float[] y = circles.y;
+        for (int i = 0; i < size; i++) {
+            int cell = cellAt(x[i], y[i]);
+            if (cell != cellOf[i]) {
+                if (cellOf[i] != NONE) {
+                    unlink(i);
+                }
+                link(i, cell);
+                relinked++;
+            }
+        }
+    }
+
+    private void rebuild(CircleStore circles, int width, int height) {
+        columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        head = new int[columns * rows];
+        Arrays.fill(head, NONE);
+        if (cellOf.length < circles.size()) {
+            grow(circles.x.length);
+        }
+        tracked = circles.size();
+        for (int i = 0; i < tracked; i++) {
+            link(i, cellAt(circles.x[i], circles.y[i]));
+        }
+        relinked += tracked;
+    }
+
+    private void grow(int capacity) {
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        next = Arrays.copyOf(next, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+    }
+
+    // Circles pushed off the area count in the edge cells
+    private int cellAt(float x, float y) {
+        int column = Math.min(columns - 1, Math.max(0, (int) (x / cellSize)));
+        int row = Math.min(rows - 1, Math.max(0, (int) (y / cellSize)));
+        return row * columns + column;
+    }
+
+    private void link(int i, int cell) {
+        cellOf[i] = cell;
+        previous[i] = NONE;
+        next[i] = head[cell];
+        if (head[cell] != NONE) {
+            previous[head[cell]] = i;
+        }
+        head[cell] = i;
+    }
+
+    private void unlink(int i) {
+        if (previous[i] == NONE) {
+            head[cellOf[i]] = next[i];
+        } else {
+            next[previous[i]] = next[i];
+        }
+        if (next[i] != NONE) {
+            previous[next[i]] = previous[i];
+        }
+        cellOf[i] = NONE;
+    }
+
+    // Mirrors circles.remove(index), and must come just before it: the circle at index leaves the grid and the
+    // last one takes its index. Circles added since the last update() are not in the grid yet.
+    void remove(CircleStore circles, int index) {
+        int last = circles.size() - 1;
+        if (index < 0 || index > last) {
+            throw new IndexOutOfBoundsException("circle " + index + " of " + circles.size());
+        }
+        if (index < tracked && cellOf[index] != NONE) {
+            unlink(index);
+        }
+        if (index != last && last < tracked && cellOf[last] != NONE) {
+            int cell = cellOf[last];
+            unlink(last);
+            link(index, cell);
+        }
+        tracked = Math.min(tracked, last);
+    }
+
+    // Separates every pair of overlapping circles and reflects their velocities along the line between their
+    // centres. Run after update().
+    void resolve(CircleStore circles) {
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int cell = row * columns + column;
+                for (int i = head[cell]; i != NONE; i = next[i]) {
+                    for (int j = next[i]; j != NONE; j = next[j]) {
+                        collide(circles, i, j);
+                    }
+                    // Right, and the three below: the other four neighbours test this cell themselves
+                    if (column + 1 < columns) {
+                        collideWith(circles, i, cell + 1);
+                    }
+                    if (row + 1 < rows) {
+                        if (column > 0) {
+                            collideWith(circles, i, cell + columns - 1);
+                        }
+                        collideWith(circles, i, cell + columns);
+                        if (column + 1 < columns) {
+                            collideWith(circles, i, cell + columns + 1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void collideWith(CircleStore circles, int i, int cell) {
+        for (int j = head[cell]; j != NONE; j = next[j]) {
+            collide(circles, i, j);
+        }
+    }
+
+    // Narrow phase for one pair. Masses go with the area; a paused circle does not move and reflects the other.
+    void collide(CircleStore circles, int i, int j) {
+        tested++;
+        float[] x = circles.x;
+        float[] y = circles.y;
+        float dx = x[j] - x[i];
+        float dy = y[j] - y[i];
+        float reach = circles.radius[i] + circles.radius[j];
+        float distanceSquared = dx * dx + dy * dy;
+        if (distanceSquared >= reach * reach) {
+            return;
+        }
+        float inverseMassI = circles.moving[i] ? 1 / (circles.radius[i] * circles.radius[i]) : 0;
+        float inverseMassJ = circles.moving[j] ? 1 / (circles.radius[j] * circles.radius[j]) : 0;
+        float inverseMass = inverseMassI + inverseMassJ;
+        if (inverseMass == 0) {
+            return;
+        }
+        collisions++;
+
+        float distance = (float) Math.sqrt(distanceSquared);
+        // Circles on the same spot are pushed apart sideways
+        float nx = distance == 0 ? 1 : dx / distance;
+        float ny = distance == 0 ? 0 : dy / distance;
+        float push = (reach - distance) / inverseMass;
+        x[i] -= nx * push * inverseMassI;
+        y[i] -= ny * push * inverseMassI;
+        x[j] += nx * push * inverseMassJ;
+        y[j] += ny * push * inverseMassJ;
+
+        float[] vx = circles.vx;
+        float[] vy = circles.vy;
+        float approach = (vx[i] - vx[j]) * nx + (vy[i] - vy[j]) * ny;
+        if (approach > 0) {
+            float impulse = 2 * approach / inverseMass;
+            vx[i] -= nx * impulse * inverseMassI;
+            vy[i] -= ny * impulse * inverseMassI;
+            vx[j] += nx * impulse * inverseMassJ;
+            vy[j] += ny * impulse * inverseMassJ;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("grid %dx%d of %.0f px, %d relinked, %d pairs tested, %d collisions",
+                columns, rows, cellSize, relinked, tested, collisions);
+    }
+}
@@ -6,38 +6,110 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.util.ArrayList;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.List;
 
-class CircleThread extends Thread{
+// Circles are moved by one AnimationEngine thread instead of a thread each, and the panel is repainted
+// once per frame. They bounce off the edges and off each other. Pausing is per circle: a click toggles the
+// circle under the cursor, space toggles them all. A right click removes a circle. For comparison, the
+// circles can instead be moved by a thread each (CircleThreads), still ticked by the engine. Every frame is
+// snapshot into a CircleFrame and painted from that by a CircleRenderer, without holding the lock.
+class DrawingPanel extends JPanel{
 
     private static final int STEP = 5;
-    private volatile boolean isMoving = true;
-
-    private final JPanel panel;
-    private final int radius;
-    private int x,y;
 
-    public CircleThread(JPanel panel, int radius, int x, int y){
-        this.panel = panel;
-        this.radius = radius;
-        this.x = x;
-        this.y = y;
+    // Guarded by itself
+    private final CircleStore circles = new CircleStore();
+    private final CollisionGrid grid = new CollisionGrid(60);
+    // Null while the engine thread moves the circles itself; guarded by circles
+    private CircleThreads threads;
+    private final Random random = new Random();
+    private final AnimationEngine engine = new AnimationEngine(this::tick, circles, this::frameDone);
+    private final CircleRenderer renderer = new CircleRenderer();
+    private volatile CircleFrame frame = CircleFrame.EMPTY;
+
+    public DrawingPanel() {
+        setFocusable(true);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                requestFocusInWindow();
+                synchronized (circles) {
+                    int index = circles.indexAt(e.getX(), e.getY());
+                    if (index < 0) {
+                        return;
+                    }
+                    if (SwingUtilities.isRightMouseButton(e)) {
+                        grid.remove(circles, index);
+                        circles.remove(index);
+                    } else {
+                        circles.moving[index] = !circles.moving[index];
+                    }
+                }
+            }
+        });
+        engine.start();
     }
-}
 
-class DrawingPanel extends JPanel{
+    // Runs on the engine thread, holding circles
+    private void tick() {
+        if (threads == null) {
+            circles.move(getWidth(), getHeight());
+        } else {
+            threads.tick(getWidth(), getHeight());
+        }
+        grid.update(circles, getWidth(), getHeight());
+        grid.resolve(circles);
+    }
 
-    private final List<CircleThread> circles = new ArrayList<>();
+    // Runs on the engine thread after the ticks of a frame
+    private void frameDone() {
+        synchronized (circles) {
+            frame = CircleFrame.of(circles);
+        }
+        repaint();
+    }
 
     public void addCircle() {
-        Random random = new Random();
         int radius = 30;
-        int x = random.nextInt(getHeight() - 2 * radius) + radius;
+        if (getWidth() <= 2 * radius || getHeight() <= 2 * radius) {
+            return;
+        }
+        int x = random.nextInt(getWidth() - 2 * radius) + radius;
         int y = random.nextInt(getHeight() - 2 * radius) + radius;
+        synchronized (circles) {
+            circles.add(x, y, random.nextBoolean() ? STEP : -STEP, random.nextBoolean() ? STEP : -STEP, radius,
+                    random.nextInt(CircleRenderer.PALETTE.length));
+        }
+    }
+
+    // A thread per circle of the given kind, or none for null
+    public void setThreads(CircleThreads.Mode mode) {
+        synchronized (circles) {
+            if (threads != null) {
+                threads.stop();
+            }
+            threads = mode == null ? null : new CircleThreads(mode, circles);
+        }
+    }
+
+    // Pauses every circle if any is moving, otherwise resumes them all
+    public void toggleMoving() {
+        synchronized (circles) {
+            boolean anyMoving = false;
+            for (int i = 0; i < circles.size() && !anyMoving; i++) {
+                anyMoving = circles.moving[i];
+            }
+            Arrays.fill(circles.moving, 0, circles.size(), !anyMoving);
+        }
     }
 
+    @Override
+    protected void paintComponent(Graphics g) {
+        renderer.paint(g, getWidth(), getHeight(), frame, getBackground());
+    }
 }
 
 public class MainFrame extends JFrame {
@@ -58,12 +130,31 @@ public class MainFrame extends JFrame {
             }
         });
 
-        add(addButton,BorderLayout.SOUTH);
+        // Space is for the circles, not for pressing the button again
+        addButton.setFocusable(false);
+
+        JComboBox<String> threadsBox = new JComboBox<>(new String[]{"Jeden wątek",
+                "Wątek wirtualny na koło" + (CircleThreads.isVirtualAvailable() ? "" : " (Java 21+)"), "Wątek na koło"});
+        threadsBox.setFocusable(false);
+        threadsBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                CircleThreads.Mode[] modes = {null, CircleThreads.Mode.VIRTUAL, CircleThreads.Mode.PLATFORM};
+                drawingPanel.setThreads(modes[threadsBox.getSelectedIndex()]);
+            }
+        });
+
+        JPanel buttons = new JPanel();
+        buttons.add(addButton);
+        buttons.add(threadsBox);
+        add(buttons,BorderLayout.SOUTH);
 
         drawingPanel.addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
-
+                if (e.getKeyCode() == KeyEvent.VK_SPACE) {
+                    drawingPanel.toggleMoving();
+                }
             }
         });
 
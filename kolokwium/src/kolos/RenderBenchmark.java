@@ -0,0 +1,68 @@
+package kolos;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+// Snapshot and render time of one frame against the number of circles, on a 1920x1080 panel. Frames up to
+// CircleRenderer.ANTIALIAS_LIMIT circles are antialiased, larger ones filled as pixel runs.
+// Usage: RenderBenchmark [radius] [counts...], default radius 30 and 1000 10000 50000 100000
+class RenderBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final int MEASURED_ROUNDS = 20;
+
+    public static void main(String[] args) {
+        float radius = args.length > 0 ? Float.parseFloat(args[0]) : 30;
+        int[] counts = args.length <= 1 ? new int[]{1000, 10_000, 50_000, 100_000} : new int[args.length - 1];
+        for (int i = 1; i < args.length; i++) {
+            counts[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        // The screen's own image type where there is one, as Swing would paint onto
+        BufferedImage screen = GraphicsEnvironment.isHeadless()
+                ? new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB)
+                : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+                .createCompatibleImage(WIDTH, HEIGHT);
+        System.out.printf("radius %.0f, antialiased up to %d circles%n", radius, CircleRenderer.ANTIALIAS_LIMIT);
+        System.out.printf("%10s %12s %12s %12s%n", "circles", "snapshot ms", "render ms", "frame ms");
+        for (int count : counts) {
+            CircleStore circles = fill(count, radius);
+            CircleRenderer renderer = new CircleRenderer();
+            Graphics g = screen.getGraphics();
+            long warm = System.nanoTime() + WARMUP_NANOS;
+            do {
+                circles.move(WIDTH, HEIGHT);
+                renderer.paint(g, WIDTH, HEIGHT, CircleFrame.of(circles), Color.WHITE);
+            } while (System.nanoTime() < warm);
+            long snapshotNanos = 0;
+            long renderNanos = 0;
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                circles.move(WIDTH, HEIGHT);
+                long start = System.nanoTime();
+                CircleFrame frame = CircleFrame.of(circles);
+                long snapshotted = System.nanoTime();
+                renderer.paint(g, WIDTH, HEIGHT, frame, Color.WHITE);
+                long end = System.nanoTime();
+                snapshotNanos += snapshotted - start;
+                renderNanos += end - snapshotted;
+            }
+            g.dispose();
+            double snapshot = snapshotNanos / 1e6 / MEASURED_ROUNDS;
+            double render = renderNanos / 1e6 / MEASURED_ROUNDS;
+            System.out.printf("%10d %12.2f %12.2f %12.2f%n", count, snapshot, render, snapshot + render);
+        }
+    }
+
+    private static CircleStore fill(int count, float radius) {
+        Random random = new Random(42);
+        CircleStore circles = new CircleStore();
+        for (int i = 0; i < count; i++) {
+            circles.add(radius + random.nextFloat() * (WIDTH - 2 * radius), radius + random.nextFloat() * (HEIGHT - 2 * radius),
+                    random.nextFloat() * 10 - 5, random.nextFloat() * 10 - 5, radius, random.nextInt(CircleRenderer.PALETTE.length));
+        }
+        return circles;
+    }
+}
@@ -0,0 +1,177 @@
+package zadanie;
+
+import imageutils.BenchmarkRunner;
+import imageutils.EffectPipeline;
+import imageutils.ImageUtils;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+// Benchmark suite for every ImageUtils filter, fused pipelines, image loading and the background worker path.
+//
+//   java -Xmx8g -Djava.awt.headless=true -cp out zadanie.EffectBenchmarks
+//        [--sizes 1,12,48] [--types INT_RGB,3BYTE_BGR] [--filter regex] [--warmup 3] [--iterations 5]
+//        [--out effect-benchmarks.json]
+//
+// Sizes are in megapixels (4:3). --filter is matched against "benchmark{params}".
+class EffectBenchmarks {
+
+    private static final Map<String, Integer> TYPES = new LinkedHashMap<>();
+
+    static {
+        TYPES.put("INT_RGB", BufferedImage.TYPE_INT_RGB);
+        TYPES.put("INT_ARGB", BufferedImage.TYPE_INT_ARGB);
+        TYPES.put("INT_ARGB_PRE", BufferedImage.TYPE_INT_ARGB_PRE);
+        TYPES.put("INT_BGR", BufferedImage.TYPE_INT_BGR);
+        TYPES.put("3BYTE_BGR", BufferedImage.TYPE_3BYTE_BGR);
+        TYPES.put("4BYTE_ABGR", BufferedImage.TYPE_4BYTE_ABGR);
+        TYPES.put("BYTE_GRAY", BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    private static final Map<String, Consumer<BufferedImage>> IMAGE_UTILS = new LinkedHashMap<>();
+
+    static {
+        IMAGE_UTILS.put("ImageUtils.changeSaturation", image -> ImageUtils.changeSaturation(image, 1.5f));
+        IMAGE_UTILS.put("ImageUtils.convertToGrayscale", ImageUtils::convertToGrayscale);
+        IMAGE_UTILS.put("ImageUtils.applyBlur", ImageUtils::applyBlur);
+        IMAGE_UTILS.put("ImageUtils.changeColor", ImageUtils::changeColor);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("sizes", "1,12,48");
+        options.put("types", String.join(",", TYPES.keySet()));
+        options.put("filter", ".*");
+        options.put("warmup", "3");
+        options.put("iterations", "5");
+        options.put("out", "effect-benchmarks.json");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(Integer.parseInt(options.get("warmup")),
+                Integer.parseInt(options.get("iterations")), options.get("filter"));
+        List<String> types = Arrays.asList(options.get("types").split(","));
+
+        for (String size : options.get("sizes").split(",")) {
+            int megapixels = Integer.parseInt(size.trim());
+            int width = (int) Math.round(Math.sqrt(megapixels * 1_000_000 * 4.0 / 3.0));
+            int height = megapixels * 1_000_000 / width;
+
+            for (String type : types) {
+                BufferedImage source = syntheticImage(width, height, TYPES.get(type.trim()));
+                Map<String, String> params = BenchmarkRunner.params("megapixels", size.trim(), "type", type.trim());
+
+                for (Map.Entry<String, Consumer<BufferedImage>> filter : IMAGE_UTILS.entrySet()) {
+                    runner.run(filter.getKey(), params, () -> {
+                        BufferedImage image = copy(source);
+                        return () -> filter.getValue().accept(image);
+                    });
+                }
+                benchmarkChain(runner, params, source);
+            }
+
+            benchmarkLoading(runner, size.trim(), width, height);
+            benchmarkWorkers(runner, size.trim(), width, height);
+        }
+
+        Path out = Paths.get(options.get("out"));
+        runner.writeJson(out);
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+
+    private static void benchmarkLoading(BenchmarkRunner runner, String size, int width, int height) throws Exception {
+        BufferedImage source = syntheticImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (String format : new String[]{"png", "jpg"}) {
+            Map<String, String> params = BenchmarkRunner.params("megapixels", size, "format", format);
+            if (!runner.accepts("ImageUtils.loadImage", params)) {
+                continue;
+            }
+
+            File file = File.createTempFile("benchmark", "." + format);
+            file.deleteOnExit();
+            ImageIO.write(source, format, file);
+            runner.run("ImageUtils.loadImage", params, () -> () -> ImageUtils.loadImage(file));
+            file.delete();
+        }
+    }
+
+    // Grayscale, Change Color and Change Saturation clicked in a row: fused into one pass versus one pass each
+    private static void benchmarkChain(BenchmarkRunner runner, Map<String, String> params, BufferedImage source) throws Exception {
+        EffectPipeline fused = EffectPipeline.point(ImageUtils.grayscale())
+                .then(ImageUtils.changeColor())
+                .then(ImageUtils.saturation(1.5f));
+        runner.run("EffectPipeline.fusedChain", params, () -> {
+            BufferedImage image = copy(source);
+            return () -> fused.apply(image);
+        });
+        runner.run("EffectPipeline.separateChain", params, () -> {
+            BufferedImage image = copy(source);
+            return () -> {
+                ImageUtils.convertToGrayscale(image);
+                ImageUtils.changeColor(image);
+                ImageUtils.changeSaturation(image, 1.5f);
+            };
+        });
+    }
+
+    // The path a button click takes: the effect runs on the shared scheduler and the repaint is posted to the EDT.
+    // Loaded images are always packed INT_RGB, so that is the only type measured here.
+    private static void benchmarkWorkers(BenchmarkRunner runner, String size, int width, int height) throws Exception {
+        BufferedImage source = syntheticImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Map<String, String> params = BenchmarkRunner.params("megapixels", size, "type", "INT_RGB");
+
+        for (Map.Entry<String, Consumer<BufferedImage>> filter : IMAGE_UTILS.entrySet()) {
+            runner.run("worker." + filter.getKey(), params, () -> {
+                BufferedImage image = copy(source);
+                return () -> runWorker(image, () -> filter.getValue().accept(image));
+            });
+        }
+    }
+
+    private static void runWorker(BufferedImage image, Runnable effect) throws InterruptedException {
+        CountDownLatch repainted = new CountDownLatch(1);
+
+        ImageTaskScheduler.shared().submit(image, () -> {
+            effect.run();
+            SwingUtilities.invokeLater(repainted::countDown);
+        });
+        repainted.await();
+    }
+
+    // Smooth gradients with some noise, so that compression and the filters see photo-like data
+    static BufferedImage syntheticImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(width * 31L + height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (x * 255 / width + random.nextInt(16)) & 0xFF;
+                int green = (y * 255 / height + random.nextInt(16)) & 0xFF;
+                int blue = ((x + y) * 255 / (width + height) + random.nextInt(16)) & 0xFF;
+                int alpha = 0xC0 + random.nextInt(0x40);
+                row[x] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    static BufferedImage copy(BufferedImage image) {
+        return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+    }
+}
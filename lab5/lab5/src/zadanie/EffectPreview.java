@@ -0,0 +1,92 @@
+package zadanie;
+
+import imageutils.EffectPipeline;
+import imageutils.ImageUtils;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// Runs adjustable effects on a small copy of the part of the image that is on screen, so sliders can show
+// their result while they move. The copy has one pixel per screen pixel at most; the full-resolution render
+// is left for when the settings are accepted.
+final class EffectPreview {
+
+    // Parameters of the adjustable effects; the neutral values leave the image unchanged
+    static final class Settings {
+        static final Settings NEUTRAL = new Settings(0, 1, 0, 0, 0);
+
+        final int blurRadius;
+        final float saturationFactor;
+        final int redOffset;
+        final int greenOffset;
+        final int blueOffset;
+
+        Settings(int blurRadius, float saturationFactor, int redOffset, int greenOffset, int blueOffset) {
+            this.blurRadius = blurRadius;
+            this.saturationFactor = saturationFactor;
+            this.redOffset = redOffset;
+            this.greenOffset = greenOffset;
+            this.blueOffset = blueOffset;
+        }
+
+        boolean isNeutral() {
+            return blurRadius == 0 && saturationFactor == 1 && redOffset == 0 && greenOffset == 0 && blueOffset == 0;
+        }
+
+        // scale is the size of the image the pipeline runs on relative to the original; the blur radius shrinks
+        // with it so a preview looks like the full-size result
+        EffectPipeline pipeline(double scale) {
+            EffectPipeline pipeline = new EffectPipeline();
+            if (saturationFactor != 1) {
+                pipeline.then(ImageUtils.saturation(saturationFactor));
+            }
+            if (redOffset != 0 || greenOffset != 0 || blueOffset != 0) {
+                pipeline.then(ImageUtils.changeColor(redOffset, greenOffset, blueOffset));
+            }
+            int radius = (int) Math.round(blurRadius * scale);
+            if (radius > 0) {
+                pipeline.thenBarrier(ImageUtils.blur(radius), radius);
+            }
+            return pipeline;
+        }
+    }
+
+    private final Rectangle area;
+    private final double scale;
+    private final BufferedImage source;
+    private final BufferedImage output;
+    private long lastRenderNanos;
+
+    // area is in image coordinates; scale above 1 is treated as 1, since a zoomed-in view needs no extra pixels
+    EffectPreview(BufferedImage image, Rectangle area, double scale) {
+        this.area = new Rectangle(area);
+        this.scale = Math.min(1, scale);
+        int width = Math.max(1, (int) Math.ceil(area.width * this.scale));
+        int height = Math.max(1, (int) Math.ceil(area.height * this.scale));
+        int type = image.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+        source = new BufferedImage(width, height, type);
+        Graphics2D g = source.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, width, height, area.x, area.y, area.x + area.width, area.y + area.height, null);
+        g.dispose();
+        output = new BufferedImage(width, height, type);
+    }
+
+    Rectangle area() {
+        return new Rectangle(area);
+    }
+
+    // Returns the preview image, which is reused by the next call
+    BufferedImage render(Settings settings) {
+        long start = System.nanoTime();
+        BufferedImage result = settings.pipeline(scale).apply(source, output);
+        lastRenderNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    String statistics() {
+        return String.format("preview %dx%d in %.1f ms", source.getWidth(), source.getHeight(), lastRenderNanos / 1e6);
+    }
+}
@@ -1,24 +1,61 @@
 package zadanie;
 
-import javax.imageio.ImageIO;
+import imageutils.EditHistory;
+import imageutils.EffectPipeline;
+import imageutils.ImageCache;
+import imageutils.ImageUtils;
+import imageutils.ProgressTracker;
+import imageutils.StreamingProcessor;
+import imageutils.StrokeRenderer;
+import imageutils.TiledViewport;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 
 class ImageEditor extends JFrame {
 
     private BufferedImage image;
-    private JPanel canvas;
+    // Set instead of image when the loaded file does not fit in the heap; only effects work on it
+    private MappedRaster mapped;
+    private TiledViewport canvas;
     private boolean drawing = false;
     private Color currentColor = Color.BLACK;
     private int brushSize = 5;
     private Point lastPoint;
 
+    // Undo steps for the image on screen; effects and history jobs run on the image's scheduler lane
+    private final EditHistory history = EditHistory.withDefaults();
+    private File loadedFile;
+    // The tiles of the image the current brush stroke has drawn over, as they were before, for recording it
+    private EditHistory.Backup strokeBackup;
+    private BufferedImage strokeTarget;
+    private StrokeRenderer strokeRenderer;
+    // Effect and history jobs queued or running per image, only used on the EDT. Strokes draw into the image
+    // on the EDT and jobs write it on the scheduler, so neither starts while the other is under way.
+    private final Map<BufferedImage, Integer> imageJobs = new IdentityHashMap<>();
+
+    private JLabel statusLabel;
+
+    // Effects queued for pendingTarget (the image or the mapped raster) that have not started yet,
+    // guarded by effectLock
+    private final Object effectLock = new Object();
+    private EffectPipeline pendingEffects;
+    private Object pendingTarget;
+    // The effect job whose result the canvas preview stands in for, only used on the EDT
+    private EffectPipeline previewedEffects;
+    // The adjustments last accepted in the Adjust dialog, which Process File applies
+    private EffectPreview.Settings adjustSettings = EffectPreview.Settings.NEUTRAL;
+
+    // Upper bound on how often a running effect updates the status line and the canvas
+    private static final long PROGRESS_INTERVAL_MILLIS = 50;
+
     public ImageEditor() {
         setTitle("Image Editor");
         setSize(900, 600);
@@ -28,28 +65,33 @@ class ImageEditor extends JFrame {
     }
 
     private void setupUI() {
-        canvas = new JPanel() {
+        canvas = new TiledViewport() {
             @Override
             protected void paintComponent(Graphics g) {
                 super.paintComponent(g);
-                if (image != null) {
-                    g.drawImage(image, 0, 0, null);
-                }
+                strokeRenderer.painted();
             }
         };
+        strokeRenderer = new StrokeRenderer(canvas);
 
         canvas.addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
-                if (image != null) {
+                if (image != null && imageJobs.containsKey(image)) {
+                    statusLabel.setText("Drawing is disabled until the queued effects have finished");
+                } else if (image != null) {
                     drawing = true;
-                    lastPoint = e.getPoint();
+                    lastPoint = canvas.toImage(e.getPoint());
+                    strokeTarget = image;
+                    strokeBackup = new EditHistory.Backup(image);
+                    strokeRenderer.begin(StrokeRenderer.inPlace(image, strokeBackup::save), lastPoint, currentColor, brushSize);
                 }
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
                 drawing = false;
+                recordStroke();
             }
         });
 
@@ -57,29 +99,23 @@ class ImageEditor extends JFrame {
             @Override
             public void mouseDragged(MouseEvent e) {
                 if (drawing && image != null) {
-                    Graphics2D g = (Graphics2D) image.getGraphics();
-                    g.setColor(currentColor);
-                    g.setStroke(new BasicStroke(brushSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-
-                    Point currentPoint = e.getPoint();
-                    g.drawLine(lastPoint.x, lastPoint.y, currentPoint.x, currentPoint.y);
-
+                    Point currentPoint = canvas.toImage(e.getPoint());
+                    strokeRenderer.dragTo(currentPoint, e.getWhen());
                     lastPoint = currentPoint;
-                    canvas.repaint();
                 }
             }
         });
 
-        add(canvas, BorderLayout.CENTER);
+        add(new JScrollPane(canvas), BorderLayout.CENTER);
 
         JButton loadButton = new JButton("Load Image");
         loadButton.addActionListener(e -> loadImage());
 
         JButton blurButton = new JButton("Apply Blur");
-        blurButton.addActionListener(e -> applyEffect(() -> ImageUtils.applyBlur(image)));
+        blurButton.addActionListener(e -> applyEffect(EffectPipeline.barrier(ImageUtils.blur(1), 1)));
 
         JButton colorChangeButton = new JButton("Change Color");
-        colorChangeButton.addActionListener(e -> applyEffect(() -> ImageUtils.changeColor(image)));
+        colorChangeButton.addActionListener(e -> applyEffect(EffectPipeline.point(ImageUtils.changeColor())));
 
         JButton drawButton = new JButton("Draw");
         drawButton.addActionListener(e -> {
@@ -99,26 +135,48 @@ class ImageEditor extends JFrame {
         JButton largeBrushButton = new JButton("Large Brush");
         largeBrushButton.addActionListener(e -> brushSize = 20);
 
+        JButton undoButton = new JButton("Undo");
+        undoButton.addActionListener(e -> applyHistory(false, false));
+
+        JButton redoButton = new JButton("Redo");
+        redoButton.addActionListener(e -> applyHistory(true, false));
+
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo", () -> applyHistory(false, false));
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo", () -> applyHistory(true, false));
+
         JButton saturationButton = new JButton("Change Saturation");
-        saturationButton.addActionListener(e -> applyEffect(() -> ImageUtils.changeSaturation(image, 1.5f)));
+        saturationButton.addActionListener(e -> applyEffect(EffectPipeline.point(ImageUtils.saturation(1.5f))));
+
+        JButton adjustButton = new JButton("Adjust...");
+        adjustButton.addActionListener(e -> adjustEffects());
+
+        JButton processFileButton = new JButton("Process File...");
+        processFileButton.addActionListener(e -> processFile());
 
         JButton grayscaleButton = new JButton("Convert to Grayscale");
-        grayscaleButton.addActionListener(e -> applyEffect(() -> ImageUtils.convertToGrayscale(image)));
+        grayscaleButton.addActionListener(e -> applyEffect(EffectPipeline.point(ImageUtils.grayscale())));
 
         JPanel buttonPanel = new JPanel();
         buttonPanel.add(saturationButton);
         buttonPanel.add(grayscaleButton);
+        buttonPanel.add(adjustButton);
+        buttonPanel.add(processFileButton);
 
         buttonPanel.add(loadButton);
         buttonPanel.add(blurButton);
         buttonPanel.add(colorChangeButton);
         buttonPanel.add(drawButton);
         buttonPanel.add(clearButton);
+        buttonPanel.add(undoButton);
+        buttonPanel.add(redoButton);
         buttonPanel.add(smallBrushButton);
         buttonPanel.add(mediumBrushButton);
         buttonPanel.add(largeBrushButton);
 
         add(buttonPanel, BorderLayout.SOUTH);
+
+        statusLabel = new JLabel(" ");
+        add(statusLabel, BorderLayout.NORTH);
     }
 
     private void loadImage() {
@@ -128,9 +186,23 @@ class ImageEditor extends JFrame {
         if (result == JFileChooser.APPROVE_OPTION) {
             try {
                 File selectedFile = fileChooser.getSelectedFile();
-                if (selectedFile != null && selectedFile.exists()) {
-                    image = ImageUtils.loadImage(selectedFile);
-                    canvas.repaint();
+                if (selectedFile != null && selectedFile.exists() && !ImageUtils.fitsInHeap(selectedFile)) {
+                    loadMapped(selectedFile);
+                } else if (selectedFile != null && selectedFile.exists()) {
+                    // A file that cannot be read leaves the current image and its history as they were
+                    BufferedImage loaded = loadCopy(selectedFile);
+                    if (loaded == null) {
+                        JOptionPane.showMessageDialog(this, "Error loading image", "Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    closeMapped();
+                    image = loaded;
+                    loadedFile = selectedFile;
+                    ImageCache.shared().prefetch(selectedFile);
+                    history.reset(image);
+                    previewedEffects = null;
+                    canvas.setPreview(null, null);
+                    canvas.setImage(image, null);
                 } else {
                     JOptionPane.showMessageDialog(this, "Invalid file selected", "Error", JOptionPane.ERROR_MESSAGE);
                 }
@@ -140,140 +212,372 @@ class ImageEditor extends JFrame {
         }
     }
 
-    private void applyEffect(Runnable effect) {
-        if (image != null) {
-            ExecutorService executor = Executors.newSingleThreadExecutor();
-            executor.execute(() -> {
-                effect.run();
-                SwingUtilities.invokeLater(() -> canvas.repaint());
-            });
-            executor.shutdown();
+    // Cached images are shared, and this editor draws and runs effects in the image itself
+    // The title and the status line say when the file had to be loaded at a lower resolution
+    private BufferedImage loadCopy(File file) {
+        BufferedImage cached = ImageCache.shared().load(file);
+        if (cached == null) {
+            return null;
         }
+        int subsampling = StreamingProcessor.subsamplingOf(cached);
+        setTitle(title(file, subsampling));
+        statusLabel.setText(subsampling == 1 ? ImageCache.shared().toString() : file.getName()
+                + " does not fit in the heap and is shown at 1/" + subsampling + " resolution; edits apply to that copy");
+        return ImageUtils.copy(cached);
     }
 
-    private void clearDrawing() {
-        if (image != null) {
-            image = ImageUtils.loadImage(new File("C:\\Users\\michg\\semestr 3\\jezykiprogramowania\\lab5\\zdjecie.jpeg"));
-            canvas.repaint();
-        }
+    private static String title(File file, int subsampling) {
+        return "Image Editor - " + file.getName() + (subsampling == 1 ? "" : " (1/" + subsampling + " resolution)");
     }
 
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new ImageEditor().setVisible(true));
+    // Decodes the file into an off-heap raster on the scheduler; the canvas reads its tiles from the mapping
+    private void loadMapped(File file) {
+        boolean accepted = ImageTaskScheduler.shared().trySubmit(file, () -> {
+            try {
+                MappedRaster raster = MappedRaster.read(file);
+                SwingUtilities.invokeLater(() -> {
+                    closeMapped();
+                    image = null;
+                    mapped = raster;
+                    loadedFile = file;
+                    setTitle(title(file, 1));
+                    history.reset(null);
+                    previewedEffects = null;
+                    canvas.setPreview(null, null);
+                    canvas.setSource(raster, null);
+                    statusLabel.setText(file.getName() + " is " + raster.width + "x" + raster.height
+                            + ", kept off the heap: effects only, no drawing or undo");
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> statusLabel.setText("Loading " + file.getName() + " failed: " + e.getMessage()));
+            }
+        });
+        if (accepted) {
+            statusLabel.setText("Loading " + file.getName() + " off the heap...");
+        } else {
+            JOptionPane.showMessageDialog(this, "Too many operations queued, try again later", "Busy", JOptionPane.WARNING_MESSAGE);
+        }
     }
-}
 
-class ImageUtils {
-    static BufferedImage loadImage(File file) {
-        try {
-            return ImageIO.read(file);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+    // The backing file is deleted once the jobs already queued for the raster are done with it, or right away
+    // when the queue is full; the mapping stays readable for jobs still running either way
+    private void closeMapped() {
+        MappedRaster raster = mapped;
+        if (raster != null) {
+            mapped = null;
+            if (!ImageTaskScheduler.shared().trySubmit(raster, raster::close)) {
+                raster.close();
+            }
         }
     }
 
-    static void changeSaturation(BufferedImage image, float saturationFactor) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = image.getRGB(x, y);
-
-                float[] hsb = Color.RGBtoHSB((pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF, pixel & 0xFF, null);
-                hsb[1] *= saturationFactor; // Modify the saturation
+    // Effects run on the shared image scheduler, one after another for the same image. Clicks that arrive
+    // before the queued job has started are added to it, so a run of point filters costs a single pass.
+    // Returns the job that will run the effect, or null if it was not accepted.
+    private EffectPipeline applyEffect(EffectPipeline effect) {
+        BufferedImage target = image;
+        MappedRaster raster = mapped;
+        Object key = raster != null ? raster : target;
+        if (key == null || strokeInProgress()) {
+            return null;
+        }
+        EffectPipeline effects;
+        synchronized (effectLock) {
+            if (pendingEffects != null && pendingTarget == key) {
+                return pendingEffects.thenAll(effect);
+            }
 
-                int rgb = Color.HSBtoRGB(hsb[0], hsb[1], hsb[2]);
-                image.setRGB(x, y, rgb);
+            effects = new EffectPipeline().thenAll(effect);
+            boolean accepted = raster != null
+                    ? ImageTaskScheduler.shared().trySubmit(raster, () -> runMappedEffects(raster, effects))
+                    : submitImageJob(target, () -> runEffects(target, effects));
+            if (accepted) {
+                pendingEffects = effects;
+                pendingTarget = key;
+                return effects;
             }
         }
+        JOptionPane.showMessageDialog(this, "Too many operations queued, try again later", "Busy", JOptionPane.WARNING_MESSAGE);
+        return null;
     }
 
-    static void convertToGrayscale(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = image.getRGB(x, y);
+    // Submits a job that writes target and counts it in imageJobs until it has finished
+    private boolean submitImageJob(BufferedImage target, Runnable job) {
+        boolean accepted = ImageTaskScheduler.shared().trySubmit(target, () -> {
+            try {
+                job.run();
+            } finally {
+                SwingUtilities.invokeLater(() -> imageJobs.computeIfPresent(target, (key, count) -> count == 1 ? null : count - 1));
+            }
+        });
+        if (accepted) {
+            imageJobs.merge(target, 1, Integer::sum);
+        }
+        return accepted;
+    }
 
-                int gray = (int) (0.299 * ((pixel >> 16) & 0xFF) + 0.587 * ((pixel >> 8) & 0xFF) + 0.114 * (pixel & 0xFF));
-                int grayscalePixel = (gray << 16) | (gray << 8) | gray;
+    private boolean strokeInProgress() {
+        if (strokeRenderer.isDrawing()) {
+            statusLabel.setText("Finish the brush stroke first");
+            return true;
+        }
+        return false;
+    }
 
-                image.setRGB(x, y, grayscalePixel);
+    // Sliders for the adjustable effects. While they move, the effects run on a screen-sized copy of the visible
+    // part of the image and the canvas shows that; the full-resolution job is only queued on OK.
+    private void adjustEffects() {
+        if (image == null) {
+            return;
+        }
+        EffectPreview preview = new EffectPreview(image, canvas.visibleImageArea(), canvas.getZoom());
+
+        JDialog dialog = new JDialog(this, "Adjust", true);
+        JSlider blurSlider = new JSlider(0, 20, 0);
+        JSlider saturationSlider = new JSlider(0, 300, 100);
+        JSlider redSlider = new JSlider(-100, 100, 0);
+        JSlider greenSlider = new JSlider(-100, 100, 0);
+        JSlider blueSlider = new JSlider(-100, 100, 0);
+        JLabel timingLabel = new JLabel(" ");
+        Supplier<EffectPreview.Settings> settings = () -> new EffectPreview.Settings(blurSlider.getValue(),
+                saturationSlider.getValue() / 100f, redSlider.getValue(), greenSlider.getValue(), blueSlider.getValue());
+
+        // Slider events that arrive while a preview is being drawn are folded into the next one
+        boolean[] renderQueued = {false};
+        Runnable render = () -> {
+            renderQueued[0] = false;
+            if (dialog.isVisible()) {
+                canvas.setPreview(preview.render(settings.get()), preview.area());
+                timingLabel.setText(preview.statistics());
             }
+        };
+        for (JSlider slider : new JSlider[]{blurSlider, saturationSlider, redSlider, greenSlider, blueSlider}) {
+            slider.addChangeListener(e -> {
+                if (!renderQueued[0]) {
+                    renderQueued[0] = true;
+                    SwingUtilities.invokeLater(render);
+                }
+            });
         }
-    }
 
+        JButton okButton = new JButton("OK");
+        okButton.addActionListener(e -> {
+            dialog.dispose();
+            EffectPreview.Settings chosen = settings.get();
+            adjustSettings = chosen;
+            // The preview stays on screen until the full-resolution result replaces it
+            previewedEffects = chosen.isNeutral() ? null : applyEffect(chosen.pipeline(1));
+            if (previewedEffects == null) {
+                canvas.setPreview(null, null);
+            }
+        });
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(e -> dialog.dispose());
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                if (previewedEffects == null) {
+                    canvas.setPreview(null, null);
+                }
+            }
+        });
 
-    static void applyBlur(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
+        JPanel sliders = new JPanel(new GridLayout(0, 2, 8, 4));
+        sliders.add(new JLabel("Blur radius"));
+        sliders.add(blurSlider);
+        sliders.add(new JLabel("Saturation %"));
+        sliders.add(saturationSlider);
+        sliders.add(new JLabel("Red offset"));
+        sliders.add(redSlider);
+        sliders.add(new JLabel("Green offset"));
+        sliders.add(greenSlider);
+        sliders.add(new JLabel("Blue offset"));
+        sliders.add(blueSlider);
+        JPanel buttons = new JPanel();
+        buttons.add(okButton);
+        buttons.add(cancelButton);
+
+        dialog.add(timingLabel, BorderLayout.NORTH);
+        dialog.add(sliders, BorderLayout.CENTER);
+        dialog.add(buttons, BorderLayout.SOUTH);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
 
-        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    // Applies the last accepted adjustments to a file of any size without loading it, see StreamingProcessor
+    private void processFile() {
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File input = fileChooser.getSelectedFile();
+        fileChooser.setDialogTitle("Save as " + String.join(", ", StreamingProcessor.OUTPUT_FORMATS));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File output = fileChooser.getSelectedFile();
+        if (!StreamingProcessor.OUTPUT_FORMATS.contains(StreamingProcessor.formatOf(output))) {
+            JOptionPane.showMessageDialog(this, "Output must be one of " + StreamingProcessor.OUTPUT_FORMATS, "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = getBlurredPixel(image, x, y);
-                result.setRGB(x, y, pixel);
+        StreamingProcessor processor = new StreamingProcessor(adjustSettings.pipeline(1), 1);
+        boolean accepted = ImageTaskScheduler.shared().trySubmit(input, () -> {
+            String status;
+            try {
+                processor.process(input, output);
+                status = output.getName() + ": " + processor.statistics();
+            } catch (IOException e) {
+                e.printStackTrace();
+                status = "Processing " + input.getName() + " failed: " + e.getMessage();
             }
+            String message = status;
+            SwingUtilities.invokeLater(() -> statusLabel.setText(message));
+        });
+        if (accepted) {
+            statusLabel.setText("Processing " + input.getName() + "...");
+        } else {
+            JOptionPane.showMessageDialog(this, "Too many operations queued, try again later", "Busy", JOptionPane.WARNING_MESSAGE);
         }
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                image.setRGB(x, y, result.getRGB(x, y));
+    // Later clicks must start a new job once this one has begun
+    private void started(EffectPipeline effects) {
+        synchronized (effectLock) {
+            if (pendingEffects == effects) {
+                pendingEffects = null;
+                pendingTarget = null;
             }
         }
     }
 
-    private static int getBlurredPixel(BufferedImage image, int x, int y) {
-        int red = 0;
-        int green = 0;
-        int blue = 0;
+    private void runEffects(BufferedImage target, EffectPipeline effects) {
+        started(effects);
 
-        int count = 0;
+        // The pipeline works on the image that is on screen, so redrawing the finished rows is the preview
+        ProgressTracker progress = new ProgressTracker(effects.passes(), PROGRESS_INTERVAL_MILLIS, (percent, fromY, toY) -> {
+            if (fromY >= 0) {
+                canvas.invalidateArea(new Rectangle(0, fromY, target.getWidth(), toY - fromY));
+            }
+            SwingUtilities.invokeLater(() -> statusLabel.setText("Applying effects: " + percent + "%"));
+        });
+        // Tiles are saved for undo as the effects first write them, instead of copying the image up front
+        EditHistory.Backup backup = new EditHistory.Backup(target);
+        BufferedImage result = progress.call(() -> effects.apply(target, backup::save));
+        EditHistory.Delta delta = backup.delta(result);
+        history.push(delta, target, result);
+        // Only the tiles the effects changed have to be redrawn, unless a barrier returned a new image
+        Rectangle changed = result != target ? null : delta == null ? new Rectangle() : delta.bounds();
+        SwingUtilities.invokeLater(() -> {
+            if (image == target) {
+                image = result;
+                canvas.setImage(result, changed);
+            }
+            if (previewedEffects == effects) {
+                previewedEffects = null;
+                canvas.setPreview(null, null);
+            }
+            statusLabel.setText(ImageTaskScheduler.shared().metrics().toString());
+        });
+    }
 
-        for (int i = -1; i <= 1; i++) {
-            for (int j = -1; j <= 1; j++) {
-                int newX = x + i;
-                int newY = y + j;
+    // Bands are written back to the mapping as they finish, so redrawing them is the preview
+    private void runMappedEffects(MappedRaster raster, EffectPipeline effects) {
+        started(effects);
+        ProgressTracker progress = new ProgressTracker(1, PROGRESS_INTERVAL_MILLIS, (percent, fromY, toY) -> {
+            if (fromY >= 0) {
+                canvas.invalidateArea(new Rectangle(0, fromY, raster.width, toY - fromY));
+            }
+            SwingUtilities.invokeLater(() -> statusLabel.setText("Applying effects: " + percent + "%"));
+        });
+        progress.run(() -> raster.apply(effects));
+        SwingUtilities.invokeLater(() -> statusLabel.setText(ImageTaskScheduler.shared().metrics().toString()));
+    }
 
-                if (newX >= 0 && newX < image.getWidth() && newY >= 0 && newY < image.getHeight()) {
-                    int pixel = image.getRGB(newX, newY);
+    private void bindKey(KeyStroke key, String name, Runnable action) {
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(key, name);
+        getRootPane().getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                action.run();
+            }
+        });
+    }
 
-                    red += (pixel >> 16) & 0xFF;
-                    green += (pixel >> 8) & 0xFF;
-                    blue += pixel & 0xFF;
+    private void recordStroke() {
+        Rectangle bounds = strokeRenderer.end();
+        if (bounds != null) {
+            statusLabel.setText(strokeRenderer.statistics());
+        }
+        if (strokeBackup != null && strokeTarget == image && bounds != null) {
+            history.push(strokeBackup.delta(), image, image);
+        }
+        strokeBackup = null;
+        strokeTarget = null;
+    }
 
-                    count++;
+    // Queued behind the effects already submitted for the image, so undo always sees their result
+    private void applyHistory(boolean redo, boolean all) {
+        BufferedImage target = image;
+        if (target != null && !strokeInProgress()) {
+            boolean accepted;
+            synchronized (effectLock) {
+                // Clicks after this must not be folded into an effect job queued before it
+                if (pendingTarget == target) {
+                    pendingEffects = null;
+                    pendingTarget = null;
                 }
+                accepted = submitImageJob(target, () -> runHistory(target, redo, all));
             }
-        }
-
-        red /= count;
-        green /= count;
-        blue /= count;
 
-        return (red << 16) | (green << 8) | blue;
+            if (!accepted) {
+                JOptionPane.showMessageDialog(this, "Too many operations queued, try again later", "Busy", JOptionPane.WARNING_MESSAGE);
+            }
+        }
     }
 
-    static void changeColor(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = image.getRGB(x, y);
+    private void runHistory(BufferedImage target, boolean redo, boolean all) {
+        EditHistory.Delta delta;
+        while ((delta = redo ? history.peekRedo(target) : history.peekUndo(target)) != null) {
+            EditHistory.Delta inverse = EditHistory.swap(delta, target);
+            canvas.invalidateArea(delta.bounds());
+            if (redo) {
+                history.redone(delta, inverse, target);
+            } else {
+                history.undone(delta, inverse, target);
+            }
+            if (!all) {
+                break;
+            }
+        }
 
-                Color color = new Color(pixel);
-                int newRed = (color.getRed() + 50) % 256;
-                int newGreen = (color.getGreen() + 30) % 256;
-                int newBlue = (color.getBlue() + 20) % 256;
+        SwingUtilities.invokeLater(() -> statusLabel.setText(history.toString()));
+    }
 
-                Color newColor = new Color(newRed, newGreen, newBlue);
-                image.setRGB(x, y, newColor.getRGB());
+    // Undoes everything back to the loaded image, or loads the file again if the oldest steps were dropped
+    private void clearDrawing() {
+        if (image == null || strokeInProgress()) {
+            return;
+        }
+        if (history.isTruncated() && loadedFile != null) {
+            BufferedImage loaded = loadCopy(loadedFile);
+            if (loaded == null) {
+                JOptionPane.showMessageDialog(this, "Error loading image", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+            image = loaded;
+            history.reset(image);
+            previewedEffects = null;
+            canvas.setPreview(null, null);
+            canvas.setImage(image, null);
+        } else {
+            applyHistory(false, true);
         }
     }
-}
\ No newline at end of file
+
+    public static void main(String[] args) {
+        SwingUtilities.invokeLater(() -> new ImageEditor().setVisible(true));
+    }
+}
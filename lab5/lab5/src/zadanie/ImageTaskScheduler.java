@@ -0,0 +1,170 @@
+package zadanie;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Application wide scheduler for image work. A fixed number of worker threads serve a bounded FIFO queue;
+// jobs submitted with the same key (the image they modify) run one after another in submission order,
+// jobs for different keys may run in parallel.
+final class ImageTaskScheduler {
+
+    private static final ImageTaskScheduler SHARED = new ImageTaskScheduler(
+            Integer.getInteger("imagescheduler.threads", 2),
+            Integer.getInteger("imagescheduler.capacity", 32));
+
+    static final class Metrics {
+        final int queueDepth;
+        final int maxQueueDepth;
+        final long submitted;
+        final long completed;
+        final long rejected;
+        final double averageWaitMillis;
+        final double maxWaitMillis;
+        final double averageRunMillis;
+        final double maxRunMillis;
+
+        private Metrics(ImageTaskScheduler scheduler) {
+            queueDepth = scheduler.queued;
+            maxQueueDepth = scheduler.maxQueued;
+            submitted = scheduler.submitted;
+            completed = scheduler.completed;
+            rejected = scheduler.rejected;
+            averageWaitMillis = completed == 0 ? 0 : scheduler.totalWaitNanos / 1e6 / completed;
+            maxWaitMillis = scheduler.maxWaitNanos / 1e6;
+            averageRunMillis = completed == 0 ? 0 : scheduler.totalRunNanos / 1e6 / completed;
+            maxRunMillis = scheduler.maxRunNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("queue %d (max %d), done %d/%d, rejected %d, wait avg %.1f ms max %.1f ms, run avg %.1f ms max %.1f ms",
+                    queueDepth, maxQueueDepth, completed, submitted, rejected,
+                    averageWaitMillis, maxWaitMillis, averageRunMillis, maxRunMillis);
+        }
+    }
+
+    private static final class Job {
+        final Runnable task;
+        final long enqueuedAt = System.nanoTime();
+
+        Job(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private final ExecutorService workers;
+    private final int capacity;
+
+    // Guarded by this. A key has an entry while it has queued or running jobs.
+    private final Map<Object, ArrayDeque<Job>> lanes = new IdentityHashMap<>();
+    private int queued;
+    private int maxQueued;
+    private long submitted;
+    private long completed;
+    private long rejected;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+    private long totalRunNanos;
+    private long maxRunNanos;
+
+    ImageTaskScheduler(int threads, int capacity) {
+        if (threads < 1 || capacity < 1) {
+            throw new IllegalArgumentException("threads and capacity must be positive: " + threads + ", " + capacity);
+        }
+        this.capacity = capacity;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "image-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static ImageTaskScheduler shared() {
+        return SHARED;
+    }
+
+    // Returns false without queueing the job when the queue is full, so callers on the EDT never block
+    synchronized boolean trySubmit(Object key, Runnable task) {
+        if (queued >= capacity) {
+            rejected++;
+            return false;
+        }
+        enqueue(key, task);
+        return true;
+    }
+
+    // Waits for room in the queue; meant for producers that are not on the EDT
+    synchronized void submit(Object key, Runnable task) throws InterruptedException {
+        while (queued >= capacity) {
+            wait();
+        }
+        enqueue(key, task);
+    }
+
+    synchronized Metrics metrics() {
+        return new Metrics(this);
+    }
+
+    private void enqueue(Object key, Runnable task) {
+        submitted++;
+        queued++;
+        maxQueued = Math.max(maxQueued, queued);
+
+        ArrayDeque<Job> lane = lanes.get(key);
+        if (lane == null) {
+            lane = new ArrayDeque<>();
+            lanes.put(key, lane);
+            lane.add(new Job(task));
+            schedule(key, lane);
+        } else {
+            lane.add(new Job(task));
+        }
+    }
+
+    // The head of a lane stays in the deque while it runs, which keeps later jobs of that key waiting
+    private void schedule(Object key, ArrayDeque<Job> lane) {
+        workers.execute(() -> run(key, lane));
+    }
+
+    private void run(Object key, ArrayDeque<Job> lane) {
+        Job job;
+        synchronized (this) {
+            job = lane.peek();
+            queued--;
+            long waited = System.nanoTime() - job.enqueuedAt;
+            totalWaitNanos += waited;
+            maxWaitNanos = Math.max(maxWaitNanos, waited);
+            notifyAll();
+        }
+
+        long start = System.nanoTime();
+        try {
+            job.task.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            long ran = System.nanoTime() - start;
+            synchronized (this) {
+                completed++;
+                totalRunNanos += ran;
+                maxRunNanos = Math.max(maxRunNanos, ran);
+
+                lane.poll();
+                if (lane.isEmpty()) {
+                    lanes.remove(key);
+                } else {
+                    // Back to the end of the pool queue, so one busy image cannot starve the others
+                    schedule(key, lane);
+                }
+            }
+        }
+    }
+}
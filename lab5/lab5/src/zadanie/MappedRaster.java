@@ -0,0 +1,215 @@
+package zadanie;
+
+import imageutils.CancellationToken;
+import imageutils.EffectPipeline;
+import imageutils.PixelBuffer;
+import imageutils.ProgressTracker;
+import imageutils.StreamingProcessor;
+import imageutils.TiledViewport;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Packed ARGB pixels in a memory-mapped temporary file, for images too large for the heap. One mapping cannot
+// exceed 2 GB, so the file is mapped in segments of whole rows. The kernels work on int arrays, so effects run
+// one band of rows at a time: the band and its halo are copied into a heap image, processed there and copied
+// back, which keeps heap use at about two bands whatever the size of the image. The viewport reads its tiles
+// straight from the mapping.
+final class MappedRaster implements TiledViewport.TileSource {
+
+    private static final int SEGMENT_INTS = 1 << 28;
+    private static final long BAND_BUDGET = Long.getLong("mappedraster.bandMb", 64) << 20;
+
+    final int width;
+    final int height;
+    final boolean alpha;
+
+    private final Path file;
+    private final RandomAccessFile access;
+    private final IntBuffer[] segments;
+    private final int segmentRows;
+
+    MappedRaster(int width, int height, boolean alpha) throws IOException {
+        if (width < 1 || height < 1 || width > SEGMENT_INTS) {
+            throw new IllegalArgumentException("unsupported raster size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+
+        file = Files.createTempFile("raster", ".pixels");
+        file.toFile().deleteOnExit();
+        access = new RandomAccessFile(file.toFile(), "rw");
+        try {
+            access.setLength(4L * width * height);
+            segmentRows = SEGMENT_INTS / width;
+            segments = new IntBuffer[(height + segmentRows - 1) / segmentRows];
+            FileChannel channel = access.getChannel();
+            for (int i = 0; i < segments.length; i++) {
+                int rows = Math.min(segmentRows, height - i * segmentRows);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, 4L * i * segmentRows * width, 4L * rows * width)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Decodes the file band by band into a new raster, so the image never has to fit in the heap
+    static MappedRaster read(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = StreamingProcessor.reader(in, file);
+            try {
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int bandRows = bandRows(width, 0, height);
+                MappedRaster raster = null;
+                try {
+                    for (int fromY = 0; fromY < height; fromY += bandRows) {
+                        int toY = Math.min(height, fromY + bandRows);
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(new Rectangle(0, fromY, width, toY - fromY));
+                        BufferedImage band = PixelBuffer.toPackedImage(reader.read(0, param));
+                        if (raster == null) {
+                            raster = new MappedRaster(width, height, band.getColorModel().hasAlpha());
+                        }
+                        raster.writeRows(fromY, toY, PixelBuffer.of(band), 0);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (raster != null) {
+                        raster.close();
+                    }
+                    throw e;
+                }
+                return raster;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Rows per band for bands costing about three heap copies each, never fewer than the halo
+    private static int bandRows(int width, int halo, int height) {
+        return (int) Math.max(Math.max(1, halo), Math.min(height, BAND_BUDGET / (12L * width)));
+    }
+
+    // Copies rows [fromY, toY) into pixels, starting at offset and packed width apart
+    void readRows(int fromY, int toY, int[] pixels, int offset) {
+        for (int y = fromY; y < toY; y++) {
+            segments[y / segmentRows].get(y % segmentRows * width, pixels, offset + (y - fromY) * width, width);
+        }
+    }
+
+    // Copies rows [fromY, toY) from buffer, starting at its row bufferY
+    void writeRows(int fromY, int toY, PixelBuffer buffer, int bufferY) {
+        // An opaque band written into a raster with alpha must come out opaque
+        int fill = alpha ? buffer.readAlpha : 0;
+        int[] row = fill == 0 ? null : new int[width];
+        for (int y = fromY; y < toY; y++) {
+            int from = buffer.offset + (bufferY + y - fromY) * buffer.stride;
+            int index = y % segmentRows * width;
+            if (row == null) {
+                segments[y / segmentRows].put(index, buffer.pixels, from, width);
+            } else {
+                for (int x = 0; x < width; x++) {
+                    row[x] = buffer.pixels[from + x] | fill;
+                }
+                segments[y / segmentRows].put(index, row, 0, width);
+            }
+        }
+    }
+
+    // A heap copy of area, for display
+    BufferedImage readArea(Rectangle area) {
+        BufferedImage image = new BufferedImage(area.width, area.height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < area.height; y++) {
+            int sourceY = area.y + y;
+            segments[sourceY / segmentRows].get(sourceY % segmentRows * width + area.x, pixels, y * area.width, area.width);
+        }
+        return image;
+    }
+
+    // Runs effects over the whole raster in place. Every band written back is reported to the current
+    // ProgressTracker as one pass; a cancelled run leaves the bands before it processed.
+    void apply(EffectPipeline effects) {
+        int halo = effects.halo();
+        int bandRows = bandRows(width, halo, height);
+        ProgressTracker progress = ProgressTracker.current();
+        CancellationToken token = CancellationToken.current();
+        progress.beginPass(height);
+
+        PixelBuffer pending = null;
+        int pendingY = 0;
+        int pendingFrom = 0;
+        int pendingTo = 0;
+        for (int fromY = 0; fromY < height; fromY += bandRows) {
+            token.throwIfCancelled();
+            int toY = Math.min(height, fromY + bandRows);
+            int top = Math.min(halo, fromY);
+            int bottom = Math.min(halo, height - toY);
+
+            BufferedImage band = new BufferedImage(width, toY + bottom - fromY + top,
+                    alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            readRows(fromY - top, toY + bottom, ((DataBufferInt) band.getRaster().getDataBuffer()).getData(), 0);
+            // The upper halo was read from the previous band's rows, which can be written back only now
+            if (pending != null) {
+                writeRows(pendingFrom, pendingTo, pending, pendingY);
+                progress.bandDone(pendingFrom, pendingTo);
+            }
+
+            // The kernels would report every band as a pass of their own
+            BufferedImage result = ProgressTracker.NONE.call(() -> effects.apply(band));
+            pending = PixelBuffer.of(result);
+            pendingY = top;
+            pendingFrom = fromY;
+            pendingTo = toY;
+        }
+        writeRows(pendingFrom, pendingTo, pending, pendingY);
+        progress.bandDone(pendingFrom, pendingTo);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getTransparency() {
+        return alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE;
+    }
+
+    @Override
+    public void drawArea(Graphics2D g, Rectangle area) {
+        g.drawImage(readArea(area), 0, 0, null);
+    }
+
+    // Deletes the backing file; the mapping stays readable until it is garbage collected
+    void close() {
+        try {
+            access.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package zadanienazajeciach;
+
+import imageutils.EffectPipeline;
+import imageutils.ImageUtils;
+import imageutils.PixelBuffer;
+import imageutils.StreamingProcessor;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Headless batch runner: pushes every image of a directory or glob through one effect chain and writes the
+// results to an output directory, each at its path below the directory or below the glob's fixed part.
+//
+//   java -Djava.awt.headless=true -cp out zadanienazajeciach.BatchProcessor <directory or glob> <output directory>
+//        [--effects saturation:1.5,blur:2] [--threads 4] [--format png] [--memoryMb 1024]
+//
+// Effects are blur:RADIUS, saturation:FACTOR, hsb:HUE:SATURATION:BRIGHTNESS, color:RED:GREEN:BLUE, grayscale
+// and invert. Decoding, processing and encoding of different files overlap on one pool of --threads workers.
+// A file waits for its share of --memoryMb before it is decoded, so how many are in flight follows their size;
+// files larger than the whole budget are streamed band by band, one at a time.
+final class BatchProcessor {
+
+    private final EffectPipeline effects;
+    private final String format;
+    private final Path inputBase;
+    private final Path outputDirectory;
+    private final int memoryMb;
+    private final Semaphore memory;
+    private final ExecutorService pool;
+
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong pixels = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicLong processNanos = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private long lastReport = System.nanoTime();
+
+    BatchProcessor(EffectPipeline effects, String format, Path inputBase, Path outputDirectory, int threads, int memoryMb) {
+        this.effects = effects;
+        this.format = format;
+        this.inputBase = inputBase;
+        this.outputDirectory = outputDirectory;
+        this.memoryMb = memoryMb;
+        this.memory = new Semaphore(memoryMb);
+        this.pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 2) {
+            System.err.println("Usage: BatchProcessor <directory or glob> <output directory> [--effects saturation:1.5,blur:2]"
+                    + " [--threads N] [--format png] [--memoryMb N]");
+            System.exit(2);
+        }
+
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("effects", "");
+        options.put("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        options.put("format", "");
+        options.put("memoryMb", String.valueOf(Runtime.getRuntime().maxMemory() / 2 >> 20));
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        List<Path> files = find(args[0]);
+        Path outputDirectory = Paths.get(args[1]);
+        Files.createDirectories(outputDirectory);
+        BatchProcessor batch = new BatchProcessor(parseEffects(options.get("effects")), options.get("format"),
+                base(args[0]), outputDirectory, Integer.parseInt(options.get("threads")), Integer.parseInt(options.get("memoryMb")));
+        System.out.println(files.size() + " files, " + options);
+        batch.run(files);
+        System.exit(batch.failed.get() == 0 ? 0 : 1);
+    }
+
+    // A directory means the images directly in it; anything else is a glob such as photos/**/*.jpg
+    static List<Path> find(String input) throws IOException {
+        Path path = Paths.get(input);
+        if (Files.isDirectory(path)) {
+            List<String> suffixes = Arrays.stream(ImageIO.getReaderFileSuffixes())
+                    .map(suffix -> suffix.toLowerCase(Locale.ROOT)).collect(Collectors.toList());
+            try (Stream<Path> listing = Files.list(path)) {
+                return listing.filter(Files::isRegularFile)
+                        .filter(file -> suffixes.contains(extension(file)))
+                        .sorted().collect(Collectors.toList());
+            }
+        }
+
+        Path pattern = path.toAbsolutePath().normalize();
+        if (Files.isRegularFile(pattern)) {
+            return List.of(pattern);
+        }
+        Path base = base(input);
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        try (Stream<Path> tree = Files.walk(base)) {
+            return tree.filter(Files::isRegularFile).filter(matcher::matches).sorted().collect(Collectors.toList());
+        }
+    }
+
+    // Where the walk starts and what output paths are relative to: the directory itself, or for a glob the
+    // deepest directory above the first part with a wildcard
+    static Path base(String input) {
+        Path path = Paths.get(input).toAbsolutePath().normalize();
+        if (Files.isDirectory(path)) {
+            return path;
+        }
+        Path base = path.getRoot();
+        for (Path part : path) {
+            if (part.toString().matches(".*[*?\\[{].*")) {
+                break;
+            }
+            base = base.resolve(part);
+        }
+        return base.equals(path) ? path.getParent() : base;
+    }
+
+    static EffectPipeline parseEffects(String chain) {
+        EffectPipeline pipeline = new EffectPipeline();
+        for (String effect : chain.split(",")) {
+            String[] parts = effect.trim().split(":");
+            switch (parts[0]) {
+                case "":
+                    break;
+                case "blur":
+                    int radius = Integer.parseInt(argument(parts, 1, 1));
+                    pipeline.thenBarrier(ImageUtils.blur(radius), radius);
+                    break;
+                case "saturation":
+                    pipeline.then(ImageUtils.saturation(Float.parseFloat(argument(parts, 1, 1))));
+                    break;
+                case "hsb":
+                    pipeline.then(ImageUtils.adjustHsb(Float.parseFloat(argument(parts, 1, 3)),
+                            Float.parseFloat(argument(parts, 2, 3)), Float.parseFloat(argument(parts, 3, 3))));
+                    break;
+                case "color":
+                    pipeline.then(ImageUtils.changeColor(Integer.parseInt(argument(parts, 1, 3)),
+                            Integer.parseInt(argument(parts, 2, 3)), Integer.parseInt(argument(parts, 3, 3))));
+                    break;
+                case "grayscale":
+                    pipeline.then(new GrayscaleEffect().operation());
+                    break;
+                case "invert":
+                    pipeline.then(new InvertColorEffect().operation());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown effect " + effect
+                            + ", expected blur:R, saturation:F, hsb:H:S:B, color:R:G:B, grayscale or invert");
+            }
+        }
+        return pipeline;
+    }
+
+    private static String argument(String[] parts, int index, int expected) {
+        if (parts.length != expected + 1) {
+            throw new IllegalArgumentException(parts[0] + " takes " + expected + " argument(s): " + String.join(":", parts));
+        }
+        return parts[index];
+    }
+
+    private static String extension(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // One input file, where its result goes and how much of the memory budget it takes
+    private static final class Job {
+        final Path input;
+        final Path output;
+        final int megabytes;
+        final boolean streamed;
+
+        Job(Path input, Path output, int megabytes, boolean streamed) {
+            this.input = input;
+            this.output = output;
+            this.megabytes = megabytes;
+            this.streamed = streamed;
+        }
+    }
+
+    // Fails before anything is written if two inputs would be written to the same output
+    void run(List<Path> files) throws InterruptedException, IOException {
+        long start = System.nanoTime();
+        List<Job> planned = plan(files);
+        List<CompletableFuture<Void>> jobs = new ArrayList<>();
+        for (Job job : planned) {
+            memory.acquire(job.megabytes);
+            jobs.add(submit(job)
+                    .whenComplete((result, error) -> {
+                        memory.release(job.megabytes);
+                        if (error != null) {
+                            fail(job.input, error instanceof CompletionException ? error.getCause() : error);
+                        }
+                    }));
+            report(start, files.size(), false);
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(jobs.toArray(new CompletableFuture<?>[0]));
+        while (true) {
+            try {
+                all.get(5, TimeUnit.SECONDS);
+                break;
+            } catch (TimeoutException e) {
+                report(start, files.size(), true);
+            } catch (Exception e) {
+                // Failures were reported per file
+                break;
+            }
+        }
+        pool.shutdown();
+        report(start, files.size(), true);
+    }
+
+    // Reads the size of every file up front, which decides its share of the memory budget and whether it is
+    // streamed, and checks that no two files share an output
+    private List<Job> plan(List<Path> files) throws IOException {
+        List<Job> planned = new ArrayList<>();
+        Map<String, Path> writers = new HashMap<>();
+        List<String> clashes = new ArrayList<>();
+        for (Path file : files) {
+            int megabytes;
+            try {
+                Dimension size = StreamingProcessor.sizeOf(file.toFile());
+                // The decoded image, its packed copy and the encoder's copy of a row block, roughly
+                megabytes = (int) Math.min(memoryMb, Math.max(1, 12L * size.width * size.height >> 20));
+            } catch (IOException e) {
+                fail(file, e);
+                continue;
+            }
+            boolean streamed = megabytes == memoryMb;
+            Path output = output(file, streamed);
+            // Compared ignoring case, as the file system may
+            Path other = writers.putIfAbsent(output.toString().toLowerCase(Locale.ROOT), file);
+            if (other != null) {
+                clashes.add(other + " and " + file + " -> " + output);
+            }
+            planned.add(new Job(file, output, megabytes, streamed));
+        }
+        if (!clashes.isEmpty()) {
+            throw new IllegalArgumentException("Inputs would overwrite each other's output, pick a --format that keeps"
+                    + " them apart or rename them:\n  " + String.join("\n  ", clashes));
+        }
+        for (Job job : planned) {
+            Files.createDirectories(job.output.getParent());
+        }
+        return planned;
+    }
+
+    private CompletableFuture<Void> submit(Job job) {
+        if (job.streamed) {
+            return CompletableFuture.runAsync(() -> stream(job.input, job.output), pool);
+        }
+        return CompletableFuture.supplyAsync(() -> decode(job.input), pool)
+                .thenApplyAsync(this::process, pool)
+                .thenAcceptAsync(image -> encode(image, job.output), pool);
+    }
+
+    // The file's path below the input base, under the output directory, with the output format's extension.
+    // A streamed file can only be written as one of StreamingProcessor.OUTPUT_FORMATS: without --format it
+    // falls back to png, and with another --format the run is refused before anything is written.
+    private Path output(Path file, boolean streamed) {
+        Path relative = inputBase.relativize(file.toAbsolutePath().normalize());
+        String name = relative.getFileName().toString();
+        String base = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+        String extension = format.isEmpty() ? extension(file) : format;
+        if (!ImageIO.getImageWritersBySuffix(extension).hasNext()) {
+            extension = "png";
+        }
+        String written = StreamingProcessor.formatOf(new File(base + "." + extension));
+        if (streamed && !StreamingProcessor.OUTPUT_FORMATS.contains(written)) {
+            if (!format.isEmpty()) {
+                throw new IllegalArgumentException(file + " is over the memory budget and streamed, which can only write "
+                        + StreamingProcessor.OUTPUT_FORMATS + ", not --format " + format);
+            }
+            System.out.println(file + " is over the memory budget and streamed, writing it as png");
+            extension = "png";
+        }
+        Path directory = relative.getParent() == null ? outputDirectory : outputDirectory.resolve(relative.getParent());
+        return directory.resolve(base + "." + extension);
+    }
+
+    private BufferedImage decode(Path file) {
+        long start = System.nanoTime();
+        try {
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (image == null) {
+                throw new IOException("no image reader for " + file);
+            }
+            return PixelBuffer.toPackedImage(image);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            decodeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private BufferedImage process(BufferedImage image) {
+        long start = System.nanoTime();
+        BufferedImage result = effects.apply(image);
+        processNanos.addAndGet(System.nanoTime() - start);
+        return result;
+    }
+
+    private void encode(BufferedImage image, Path output) {
+        long start = System.nanoTime();
+        try {
+            String extension = extension(output);
+            // The JPEG writer cannot store alpha
+            if ((extension.equals("jpg") || extension.equals("jpeg")) && image.getColorModel().hasAlpha()) {
+                BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+                int[] row = new int[image.getWidth()];
+                for (int y = 0; y < image.getHeight(); y++) {
+                    image.getRGB(0, y, row.length, 1, row, 0, row.length);
+                    opaque.setRGB(0, y, row.length, 1, row, 0, row.length);
+                }
+                image = opaque;
+            }
+            if (!ImageIO.write(image, extension, output.toFile())) {
+                throw new IOException("no image writer for " + output);
+            }
+            finished((long) image.getWidth() * image.getHeight());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            encodeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void stream(Path file, Path output) {
+        long start = System.nanoTime();
+        try {
+            StreamingProcessor processor = new StreamingProcessor(effects, 1);
+            processor.process(file.toFile(), output.toFile());
+            Dimension size = StreamingProcessor.sizeOf(file.toFile());
+            finished((long) size.width * size.height);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            processNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void finished(long imagePixels) {
+        pixels.addAndGet(imagePixels);
+        done.incrementAndGet();
+    }
+
+    private void fail(Path file, Throwable error) {
+        failed.incrementAndGet();
+        System.err.println(file + ": " + error);
+    }
+
+    private synchronized void report(long start, int total, boolean force) {
+        long now = System.nanoTime();
+        if (!force && now - lastReport < TimeUnit.SECONDS.toNanos(5)) {
+            return;
+        }
+        lastReport = now;
+        double seconds = (now - start) / 1e9;
+        int images = done.get();
+        System.out.printf(Locale.ROOT, "%d/%d done, %d failed, %.1f s: %.1f images/s, %.1f MP/s"
+                        + " (decode %.0f ms, process %.0f ms, encode %.0f ms per image)%n",
+                images, total, failed.get(), seconds, images / seconds, pixels.get() / 1e6 / seconds,
+                images == 0 ? 0.0 : decodeNanos.get() / 1e6 / images,
+                images == 0 ? 0.0 : processNanos.get() / 1e6 / images,
+                images == 0 ? 0.0 : encodeNanos.get() / 1e6 / images);
+    }
+}
@@ -0,0 +1,31 @@
+package zadanienazajeciach;
+
+import imageutils.BoxBlur;
+import imageutils.PixelBuffer;
+
+import java.awt.image.BufferedImage;
+
+class BlurEffect implements ImageEffect {
+
+    private final int radius;
+
+    public BlurEffect(int radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public BufferedImage applyEffect(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        BufferedImage blurredImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        BoxBlur.blur(PixelBuffer.of(image), PixelBuffer.of(blurredImage), radius);
+
+        return blurredImage;
+    }
+
+    @Override
+    public int halo() {
+        return radius;
+    }
+}
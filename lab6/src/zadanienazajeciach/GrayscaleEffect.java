@@ -0,0 +1,11 @@
+package zadanienazajeciach;
+
+import imageutils.LookupTables;
+import imageutils.PointOperation;
+
+class GrayscaleEffect extends PointEffect {
+    @Override
+    PointOperation operation() {
+        return LookupTables.grayscale(true);
+    }
+}
@@ -1,140 +1,32 @@
 package zadanienazajeciach;
+
+import imageutils.CancellationToken;
+import imageutils.ImageCache;
+import imageutils.ProgressTracker;
+import imageutils.TiledViewport;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
-import javax.imageio.ImageIO;
-
-interface ImageEffect {
-    BufferedImage applyEffect(BufferedImage image);
-}
-
-class BlurEffect implements ImageEffect {
-
-    private final BufferedImage image;
-
-    public BlurEffect(BufferedImage image) {
-        this.image = image;
-    }
-
-    @Override
-    public BufferedImage applyEffect(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        BufferedImage blurredImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int avgColor = calculateAverageColor(x, y);
-                blurredImage.setRGB(x, y, avgColor);
-            }
-        }
-
-        return blurredImage;
-    }
-
-    private synchronized int calculateAverageColor(int x, int y) {
-        int sumRed = 0, sumGreen = 0, sumBlue = 0;
-        int count = 0;
-
-        for (int dy = -1; dy <= 1; dy++) {
-            for (int dx = -1; dx <= 1; dx++) {
-                int nx = x + dx;
-                int ny = y + dy;
-
-                if (nx >= 0 && nx < image.getWidth() && ny >= 0 && ny < image.getHeight()) {
-                    Color color = new Color(image.getRGB(nx, ny));
-                    sumRed += color.getRed();
-                    sumGreen += color.getGreen();
-                    sumBlue += color.getBlue();
-                    count++;
-                }
-            }
-        }
-
-        int avgRed = sumRed / count;
-        int avgGreen = sumGreen / count;
-        int avgBlue = sumBlue / count;
-
-        return new Color(avgRed, avgGreen, avgBlue).getRGB();
-    }
-}
-
-class InvertColorEffect implements ImageEffect {
-    @Override
-    public synchronized BufferedImage applyEffect(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        BufferedImage invertedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = image.getRGB(x, y);
-
-                int alpha = (rgb >> 24) & 0xFF;
-                int red = (rgb >> 16) & 0xFF;
-                int green = (rgb >> 8) & 0xFF;
-                int blue = rgb & 0xFF;
-
-                red = 255 - red;
-                green = 255 - green;
-                blue = 255 - blue;
-
-                int newRGB = (alpha << 24) | (red << 16) | (green << 8) | blue;
-                invertedImage.setRGB(x, y, newRGB);
-            }
-        }
-
-        return invertedImage;
-    }
-}
-
-class GrayscaleEffect implements ImageEffect {
-    @Override
-    public synchronized BufferedImage applyEffect(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        BufferedImage grayscaleImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb = image.getRGB(x, y);
-
-                int alpha = (rgb >> 24) & 0xFF;
-                int red = (rgb >> 16) & 0xFF;
-                int green = (rgb >> 8) & 0xFF;
-                int blue = rgb & 0xFF;
-
-                int gray = (int) (0.299 * red + 0.587 * green + 0.114 * blue);
-
-                int newRGB = (alpha << 24) | (gray << 16) | (gray << 8) | gray;
-
-                grayscaleImage.setRGB(x, y, newRGB);
-            }
-        }
-
-        return grayscaleImage;
-    }
-}
 
 public class Igor    {
 
     private JFrame frame;
-    private JLabel imageLabel;
+    private TiledViewport imageView;
     private JButton loadButton;
     private JButton blurButton;
     private JButton invertColorButton;
     private JButton grayscaleButton;
     private JButton cancelButton;
+    private JProgressBar progressBar;
 
-    private volatile boolean isProcessingCancelled = false;
     private AtomicReference<BufferedImage> imageReference = new AtomicReference<>();
-    private SwingWorker<Void, Void> currentWorker;
+    private SwingWorker<BufferedImage, Void> currentWorker;
+    private CancellationToken currentToken = CancellationToken.NONE;
 
     public Igor() {
         frame = new JFrame("Image Processing App");
@@ -145,15 +37,15 @@ public class Igor    {
         JPanel topPanel = new JPanel(new FlowLayout());
         frame.add(topPanel, BorderLayout.NORTH);
 
-        imageLabel = new JLabel();
-        frame.add(imageLabel, BorderLayout.CENTER);
+        imageView = new TiledViewport();
+        frame.add(new JScrollPane(imageView), BorderLayout.CENTER);
 
         loadButton = new JButton("Load Image");
         loadButton.addActionListener(e -> loadImageInBackground());
         topPanel.add(loadButton);
 
         blurButton = new JButton("Blur");
-        blurButton.addActionListener(e -> applyEffectInBackground(new BlurEffect(imageReference.get())));
+        blurButton.addActionListener(e -> applyEffectInBackground(new BlurEffect(1)));
         topPanel.add(blurButton);
 
         invertColorButton = new JButton("Invert Color");
@@ -168,6 +60,10 @@ public class Igor    {
         cancelButton.addActionListener(e -> cancelProcessing());
         topPanel.add(cancelButton);
 
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        topPanel.add(progressBar);
+
         frame.setVisible(true);
     }
 
@@ -180,12 +76,11 @@ public class Igor    {
 
                 if (result == JFileChooser.APPROVE_OPTION) {
                     File selectedFile = fileChooser.getSelectedFile();
-                    try {
-                        BufferedImage image = ImageIO.read(selectedFile);
+                    BufferedImage image = ImageCache.shared().load(selectedFile);
+                    if (image != null) {
                         imageReference.set(image);
                         displayImage(image);
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                        ImageCache.shared().prefetch(selectedFile);
                     }
                 }
                 return null;
@@ -196,56 +91,66 @@ public class Igor    {
     }
 
     private void applyEffectInBackground(final ImageEffect effect) {
-        isProcessingCancelled = false;
+        cancelProcessing();
 
-        if (currentWorker != null && !currentWorker.isDone()) {
-            currentWorker.cancel(true);
-        }
-
-        currentWorker = new SwingWorker<Void, Void>() {
+        CancellationToken token = new CancellationToken();
+        currentToken = token;
+        currentWorker = new SwingWorker<BufferedImage, Void>() {
             @Override
-            protected Void doInBackground() throws Exception {
+            protected BufferedImage doInBackground() {
                 BufferedImage currentImage = imageReference.get();
-                if (currentImage != null) {
-                    synchronized (this) {
-                        BufferedImage newImage = effect.applyEffect(currentImage);
-                        if (!isProcessingCancelled) {
-                            imageReference.set(newImage);
-                            displayImage(newImage);
-                        }
-                    }
+                if (currentImage == null) {
+                    return null;
                 }
-                return null;
+                ProgressTracker progress = new ProgressTracker(1, 50, (percent, fromY, toY) -> setProgress(percent));
+                BufferedImage newImage = token.call(() -> progress.call(() -> effect.applyEffect(currentImage)));
+
+                // Only the image the effect started from may be replaced, a newer one is never overwritten
+                token.throwIfCancelled();
+                return imageReference.compareAndSet(currentImage, newImage) ? newImage : null;
             }
 
             @Override
             protected void done() {
-                if (isCancelled()) {
-                    isProcessingCancelled = false;
+                try {
+                    BufferedImage newImage = get();
+                    if (newImage != null) {
+                        displayImage(newImage);
+                    }
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancellationException) {
+                        // Shown until the next effect starts, unless it already has
+                        if (currentWorker == this) {
+                            long latency = token.latencyNanos();
+                            progressBar.setString(latency < 0 ? "Cancelled before it started"
+                                    : String.format("Cancelled, filters stopped %.2f ms after the request", latency / 1e6));
+                        }
+                    } else {
+                        e.printStackTrace();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
                 }
             }
         };
 
         currentWorker.addPropertyChangeListener(evt -> {
-            if ("state".equals(evt.getPropertyName()) && SwingWorker.StateValue.DONE.equals(evt.getNewValue())) {
-                if (currentWorker.isCancelled()) {
-                    isProcessingCancelled = false;
-                }
+            if ("progress".equals(evt.getPropertyName())) {
+                progressBar.setValue((Integer) evt.getNewValue());
             }
         });
-
+        progressBar.setValue(0);
+        progressBar.setString(null);
         currentWorker.execute();
     }
 
     private void cancelProcessing() {
-        isProcessingCancelled = true;
-        if (currentWorker != null && !currentWorker.isDone()) {
-            currentWorker.cancel(true);
-        }
+        currentToken.cancel();
     }
 
+    // Safe to call from any thread, the viewport hands the image to the EDT
     private void displayImage(BufferedImage image) {
-        imageLabel.setIcon(new ImageIcon(image));
+        imageView.setImage(image, null);
     }
 
     public static void main(String[] args) {
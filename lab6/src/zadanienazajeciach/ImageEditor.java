@@ -1,21 +1,52 @@
 package zadanienazajeciach;
 
-import javax.imageio.ImageIO;
+import imageutils.CancellationToken;
+import imageutils.EditHistory;
+import imageutils.ImageCache;
+import imageutils.ImageUtils;
+import imageutils.ProgressTracker;
+import imageutils.StreamingProcessor;
+import imageutils.StrokeRenderer;
+import imageutils.TiledViewport;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 class ImageEditor extends JFrame {
 
-    private BufferedImage image;
-    private JPanel canvas;
+    // The current version of the image; nothing ever holds a lock on it, see ImageSnapshot
+    private final AtomicReference<ImageSnapshot> snapshot = new AtomicReference<>();
+    // The copy an effect is working on, painted instead of the snapshot while the effect runs
+    private volatile BufferedImage preview;
+    // The brush stroke in progress, or the last one while it is being committed; shown instead of the snapshot
+    private StrokeLayer strokeLayer;
+    // Commits finished strokes off the EDT, in the order they were drawn
+    private final ExecutorService strokeCommits = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "stroke-commit");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private StrokeRenderer strokeRenderer;
+    // Every new version is published and recorded while holding the history's monitor, so the history is
+    // always at the current snapshot when nobody holds it
+    private final EditHistory history = EditHistory.withDefaults();
+    private File loadedFile;
+    private TiledViewport canvas;
+    private JProgressBar progressBar;
     private boolean drawing = false;
     private Color currentColor = Color.BLACK;
     final int brushSize = 5;
+    private float saturationFactor = 1.5f;
     private Point lastPoint;
 
     public ImageEditor() {
@@ -27,53 +58,62 @@ class ImageEditor extends JFrame {
     }
 
     private void setupUI() {
-        canvas = new JPanel() {
+        canvas = new TiledViewport() {
             @Override
             protected void paintComponent(Graphics g) {
                 super.paintComponent(g);
-                if (image != null) {
-                    g.drawImage(image, 0, 0, null);
-                }
+                strokeRenderer.painted();
             }
         };
+        strokeRenderer = new StrokeRenderer(canvas);
 
         canvas.addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
-                if (image != null) {
+                ImageSnapshot base = snapshot.get();
+                if (base != null) {
                     drawing = true;
-                    lastPoint = e.getPoint();
+                    lastPoint = canvas.toImage(e.getPoint());
+                    // Over the stroke still being committed, if any, so what is on screen stays there
+                    StrokeLayer pending = strokeLayer != null && strokeLayer.origin.lineage == base.lineage ? strokeLayer : null;
+                    boolean unchanged = preview == null && (strokeLayer == null || pending != null);
+                    strokeLayer = new StrokeLayer(base, pending, lastPoint, currentColor, brushSize);
+                    showImage(unchanged ? new Rectangle() : null);
+                    strokeRenderer.begin(strokeLayer, lastPoint, currentColor, brushSize);
                 }
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
                 drawing = false;
+                commitStroke();
             }
         });
 
         canvas.addMouseMotionListener(new MouseMotionAdapter() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (drawing && image != null) {
-                    Graphics2D g = (Graphics2D) image.getGraphics();
-                    g.setColor(currentColor);
-                    g.setStroke(new BasicStroke(brushSize, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-
-                    Point currentPoint = e.getPoint();
-                    g.drawLine(lastPoint.x, lastPoint.y, currentPoint.x, currentPoint.y);
+                if (drawing && strokeRenderer.isDrawing()) {
+                    Point currentPoint = canvas.toImage(e.getPoint());
+                    strokeRenderer.dragTo(currentPoint, e.getWhen());
+                    strokeLayer.points.add(currentPoint);
 
                     lastPoint = currentPoint;
-                    canvas.repaint();
                 }
             }
         });
 
-        add(canvas, BorderLayout.CENTER);
+        add(new JScrollPane(canvas), BorderLayout.CENTER);
 
         JButton loadButton = new JButton("Load Image");
         loadButton.addActionListener(e -> loadImage());
 
+        JButton previousButton = new JButton("Previous");
+        previousButton.addActionListener(e -> loadNeighbour(-1));
+
+        JButton nextButton = new JButton("Next");
+        nextButton.addActionListener(e -> loadNeighbour(1));
+
         JButton blurButton = new JButton("Apply Blur");
         blurButton.addActionListener(e -> applyBlur());
 
@@ -89,6 +129,15 @@ class ImageEditor extends JFrame {
         JButton clearButton = new JButton("Clear Drawing");
         clearButton.addActionListener(e -> clearDrawing());
 
+        JButton undoButton = new JButton("Undo");
+        undoButton.addActionListener(e -> undo());
+
+        JButton redoButton = new JButton("Redo");
+        redoButton.addActionListener(e -> redo());
+
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK), "undo", this::undo);
+        bindKey(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK), "redo", this::redo);
+
         JButton saturationButton = new JButton("Change Saturation");
         saturationButton.addActionListener(e -> changeSaturation());
 
@@ -103,15 +152,121 @@ class ImageEditor extends JFrame {
         buttonPanel.add(grayscaleButton);
         buttonPanel.add(cancelOperationButton);
         buttonPanel.add(loadButton);
+        buttonPanel.add(previousButton);
+        buttonPanel.add(nextButton);
         buttonPanel.add(blurButton);
         buttonPanel.add(colorChangeButton);
         buttonPanel.add(drawButton);
         buttonPanel.add(clearButton);
+        buttonPanel.add(undoButton);
+        buttonPanel.add(redoButton);
 
         add(buttonPanel, BorderLayout.SOUTH);
+
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        add(progressBar, BorderLayout.NORTH);
+    }
+    private BackgroundImageWorker currentWorker;
+
+    // Upper bound on how often a running effect updates the progress bar and the preview
+    private static final long PROGRESS_INTERVAL_MILLIS = 50;
+
+    private void bindKey(KeyStroke key, String name, Runnable action) {
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(key, name);
+        getRootPane().getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                action.run();
+            }
+        });
+    }
+
+    // Points the viewport at the image that should be on screen. changed is the area in which that image
+    // differs from the one shown so far, null when it is not known.
+    private void showImage(Rectangle changed) {
+        if (strokeLayer != null) {
+            canvas.setSource(strokeLayer, changed);
+        } else {
+            canvas.setImage(preview != null ? preview : currentImage(), changed);
+        }
+    }
+
+    private BufferedImage currentImage() {
+        ImageSnapshot current = snapshot.get();
+        return current == null ? null : current.image;
+    }
+
+    // Loading replaces whatever version is current and starts a new history
+    private void replaceImage(BufferedImage image) {
+        synchronized (history) {
+            history.reset(snapshot.updateAndGet(current -> ImageSnapshot.loaded(current, image)));
+        }
+        showImage(null);
+    }
+
+    // Publishes next if base is still current and records the change; false if another version got there first
+    private boolean commit(ImageSnapshot base, ImageSnapshot next, EditHistory.Delta delta) {
+        synchronized (history) {
+            if (!snapshot.compareAndSet(base, next)) {
+                return false;
+            }
+            history.push(delta, base, next);
+            return true;
+        }
+    }
+
+    // Runs on the EDT. The stroke layer stays on screen until the commit is done.
+    private void commitStroke() {
+        StrokeLayer layer = strokeLayer;
+        Rectangle bounds = strokeRenderer.end();
+        if (layer == null || bounds == null) {
+            return;
+        }
+        // Stays in the progress bar until the next effect puts its percentage back
+        progressBar.setString(strokeRenderer.statistics());
+
+        strokeCommits.execute(() -> {
+            boolean committed = commitLayer(layer, bounds);
+            SwingUtilities.invokeLater(() -> {
+                if (!committed) {
+                    progressBar.setString("Stroke dropped, another image was loaded");
+                }
+                // A stroke started since is layered over this one and stays on screen
+                if (strokeLayer == layer) {
+                    strokeLayer = null;
+                    showImage(preview == null && snapshot.get() == layer.committed ? new Rectangle() : null);
+                }
+            });
+        });
+    }
+
+    // Publishes the stroke with the pixels it was drawn with when the snapshot it was drawn over is still
+    // current. If an edit was published meanwhile the stroke is replayed on top of it; if another image was
+    // loaded it is dropped and false returned.
+    private boolean commitLayer(StrokeLayer layer, Rectangle bounds) {
+        while (true) {
+            ImageSnapshot base = snapshot.get();
+            if (base.lineage != layer.origin.lineage) {
+                return false;
+            }
+            boolean exact = base == layer.expectedBase();
+            BufferedImage stroked;
+            if (exact) {
+                stroked = layer.materialize(base.image);
+            } else {
+                stroked = ImageUtils.copy(base.image);
+                StrokeRenderer.replay(stroked, layer.points, layer.color, layer.brushSize);
+            }
+            ImageSnapshot next = ImageSnapshot.next(base, stroked);
+            if (commit(base, next, EditHistory.diff(base.image, stroked, bounds))) {
+                if (exact) {
+                    layer.committed = next;
+                }
+                return true;
+            }
+        }
     }
-    private volatile boolean isCancelRequested = false;
-    private final Object imageLock = new Object();
 
     private void loadImage() {
         JFileChooser fileChooser = new JFileChooser();
@@ -128,21 +283,22 @@ class ImageEditor extends JFrame {
     }
 
     private void cancelCurrentOperation() {
-        synchronized (imageLock) {
-            isCancelRequested = true;
+        if (currentWorker != null && !currentWorker.isDone()) {
+            currentWorker.cancelOperation();
         }
     }
 
     private void applyEffectInBackground(BackgroundImageWorker worker) {
-        synchronized (imageLock) {
-            if (image != null && !isCancelRequested) {
-                worker.execute();
-            }
-            else
-            {
-                isCancelRequested = false;
-                worker.execute();
-            }
+        if (snapshot.get() != null) {
+            currentWorker = worker;
+            worker.addPropertyChangeListener(evt -> {
+                if ("progress".equals(evt.getPropertyName())) {
+                    progressBar.setValue((Integer) evt.getNewValue());
+                }
+            });
+            progressBar.setValue(0);
+            progressBar.setString(null);
+            worker.execute();
         }
     }
 
@@ -150,51 +306,158 @@ class ImageEditor extends JFrame {
         applyEffectInBackground(worker);
     }
 
-    private class BackgroundImageWorker extends SwingWorker<Void, Void> {
-        private final Runnable effect;
-        private boolean isCancelled = false; // Dodaj zmienną do śledzenia anulowania
-
-        public BackgroundImageWorker(Runnable effect) {
+    // Runs the effect on a copy of the current snapshot and publishes the copy only if it finished without
+    // being cancelled, so a cancelled effect leaves the image exactly as it was. If an edit was published in
+    // the meantime the effect runs again on the new version, so no edit is lost; if another image was loaded,
+    // the effect is dropped. While it runs the copy is shown and the rows the filters have finished are
+    // repainted as they come in.
+    private class BackgroundImageWorker extends SwingWorker<Void, int[]> {
+        private final Consumer<BufferedImage> effect;
+        private final CancellationToken token = new CancellationToken();
+        private volatile BufferedImage working;
+        private volatile boolean dropped;
+        // The image the effect was asked for, which may be replaced before the worker gets to run
+        private final long lineage;
+
+        public BackgroundImageWorker(Consumer<BufferedImage> effect) {
             this.effect = effect;
+            ImageSnapshot current = snapshot.get();
+            this.lineage = current == null ? 0 : current.lineage;
         }
 
         @Override
         protected Void doInBackground() throws Exception {
-            try {
-                synchronized (imageLock) {
-                    if (!isCancelled) { // Sprawdź, czy nie zostało anulowane przed rozpoczęciem operacji
-                        effect.run();
+            while (true) {
+                token.throwIfCancelled();
+                ImageSnapshot base = snapshot.get();
+                if (base.lineage != lineage) {
+                    dropped = true;
+                    return null;
+                }
+                BufferedImage working = ImageUtils.copy(base.image);
+                this.working = working;
+                preview = working;
+                SwingUtilities.invokeLater(() -> showImage(null));
+                ProgressTracker progress = new ProgressTracker(1, PROGRESS_INTERVAL_MILLIS, (percent, fromY, toY) -> {
+                    setProgress(percent);
+                    if (fromY >= 0) {
+                        publish(new int[]{fromY, toY});
                     }
+                });
+                token.run(() -> progress.run(() -> effect.accept(working)));
+
+                token.throwIfCancelled();
+                EditHistory.Delta delta = EditHistory.diff(base.image, working, null);
+                if (commit(base, ImageSnapshot.next(base, working), delta)) {
+                    return null;
                 }
-            } catch (Exception e) {
-                // Handle exceptions if needed
             }
-            return null;
+        }
+
+        // SwingWorker already merges publish calls that arrive between two EDT runs
+        @Override
+        protected void process(List<int[]> rows) {
+            int fromY = Integer.MAX_VALUE;
+            int toY = 0;
+            for (int[] range : rows) {
+                fromY = Math.min(fromY, range[0]);
+                toY = Math.max(toY, range[1]);
+            }
+            canvas.invalidateArea(new Rectangle(0, fromY, working.getWidth(), toY - fromY));
         }
 
         @Override
         protected void done() {
+            // A worker queued behind this one may already be showing its own copy
+            if (preview == working) {
+                preview = null;
+            }
+            showImage(null);
             try {
-                synchronized (imageLock) {
-                    get();
-                    canvas.repaint();
+                get();
+                if (dropped && currentWorker == this) {
+                    progressBar.setString("Effect dropped, another image was loaded");
                 }
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            } finally {
-                synchronized (imageLock) {
-                    isCancelRequested = false;
-                    isCancelled = false; // Zresetuj flagę anulowania po zakończeniu operacji
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException) {
+                    // Shown until the next effect starts, unless one queued behind this one already has
+                    if (currentWorker == this) {
+                        long latency = token.latencyNanos();
+                        progressBar.setString(latency < 0 ? "Cancelled before it started"
+                                : String.format("Cancelled, filters stopped %.2f ms after the request", latency / 1e6));
+                    }
+                } else {
+                    e.printStackTrace();
                 }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
         }
 
         public void cancelOperation() {
-            isCancelled = true; // Ustaw flagę anulowania
-            cancel(true);
+            token.cancel();
         }
     }
 
+    // Undo and redo work like effects: the stored tiles are swapped into a copy of the current snapshot,
+    // which is then published. all keeps going until the history is exhausted.
+    private class HistoryWorker extends SwingWorker<Void, Void> {
+        private final boolean redo;
+        private final boolean all;
+        private Rectangle changed;
+
+        HistoryWorker(boolean redo, boolean all) {
+            this.redo = redo;
+            this.all = all;
+        }
+
+        @Override
+        protected Void doInBackground() {
+            while (true) {
+                ImageSnapshot base = snapshot.get();
+                EditHistory.Delta delta = redo ? history.peekRedo(base) : history.peekUndo(base);
+                if (delta == null) {
+                    return null;
+                }
+                BufferedImage restored = ImageUtils.copy(base.image);
+                EditHistory.Delta inverse = EditHistory.swap(delta, restored);
+                ImageSnapshot next = ImageSnapshot.next(base, restored);
+
+                synchronized (history) {
+                    if (snapshot.compareAndSet(base, next)) {
+                        if (redo) {
+                            history.redone(delta, inverse, next);
+                        } else {
+                            history.undone(delta, inverse, next);
+                        }
+                        changed = changed == null ? delta.bounds() : changed.union(delta.bounds());
+                        if (!all) {
+                            return null;
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void done() {
+            showImage(changed == null ? new Rectangle() : changed);
+            try {
+                get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void undo() {
+        new HistoryWorker(false, false).execute();
+    }
+
+    private void redo() {
+        new HistoryWorker(true, false).execute();
+    }
+
     private class LoadImageWorker extends SwingWorker<BufferedImage, Void> {
 
         private final File selectedFile;
@@ -205,58 +468,80 @@ class ImageEditor extends JFrame {
 
         @Override
         protected BufferedImage doInBackground() throws Exception {
-            synchronized (imageLock) {
-                return ImageUtils.loadImage(selectedFile);
-            }
+            return ImageCache.shared().load(selectedFile);
         }
 
+        // A file that cannot be read leaves the current image and its history as they were
         @Override
         protected void done() {
+            BufferedImage image = null;
             try {
-                synchronized (imageLock) {
-                    image = get();
-                    canvas.repaint();
-                }
+                image = get();
             } catch (InterruptedException | ExecutionException e) {
                 e.printStackTrace();
+            }
+            if (image == null) {
                 JOptionPane.showMessageDialog(ImageEditor.this, "Error loading image", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            replaceImage(image);
+            loadedFile = selectedFile;
+            int subsampling = StreamingProcessor.subsamplingOf(image);
+            setTitle("Image Editor - " + selectedFile.getName() + (subsampling == 1 ? "" : " (1/" + subsampling + " resolution)"));
+            if (subsampling > 1) {
+                progressBar.setString(selectedFile.getName() + " does not fit in the heap and is shown at 1/"
+                        + subsampling + " resolution; edits apply to that copy");
+            } else {
+                progressBar.setString(ImageCache.shared().toString());
             }
+            ImageCache.shared().prefetch(selectedFile);
         }
     }
 
 
+    // Steps through the images of the loaded file's directory, which the cache has prefetched
+    private void loadNeighbour(int offset) {
+        File neighbour = loadedFile == null ? null : ImageCache.neighbour(loadedFile, offset);
+        if (neighbour != null) {
+            loadImageInBackground(neighbour);
+        }
+    }
+
     private void loadImageInBackground(File selectedFile) {
         LoadImageWorker worker = new LoadImageWorker(selectedFile);
         worker.execute();
     }
 
 
+    // Undoes everything back to the loaded image, or loads the file again if the oldest steps were dropped
     private void clearDrawing() {
-        if (image != null) {
-            synchronized (imageLock) {
-                image = ImageUtils.loadImage(new File("C:\\Users\\michg\\semestr 3\\jezykiprogramowania\\lab5\\zdjecie.jpeg"));
-                canvas.repaint();
-            }
+        if (snapshot.get() == null) {
+            return;
+        }
+        if (history.isTruncated() && loadedFile != null) {
+            loadImageInBackground(loadedFile);
+        } else {
+            new HistoryWorker(false, true).execute();
         }
     }
 
     private void applyBlur() {
-        BackgroundImageWorker worker = new BackgroundImageWorker(() -> ImageUtils.applyBlur(image));
+        BackgroundImageWorker worker = new BackgroundImageWorker(ImageUtils::applyBlur);
         applyEffect(worker);
     }
 
     private void changeColor() {
-        BackgroundImageWorker worker = new BackgroundImageWorker(() -> ImageUtils.changeColor(image));
+        BackgroundImageWorker worker = new BackgroundImageWorker(ImageUtils::changeColor);
         applyEffect(worker);
     }
 
     private void changeSaturation() {
-        BackgroundImageWorker worker = new BackgroundImageWorker(() -> ImageUtils.changeSaturation(image));
+        BackgroundImageWorker worker = new BackgroundImageWorker(image -> ImageUtils.changeSaturation(image, saturationFactor));
         applyEffect(worker);
     }
 
     private void convertToGrayscale() {
-        BackgroundImageWorker worker = new BackgroundImageWorker(() -> ImageUtils.convertToGrayscale(image));
+        BackgroundImageWorker worker = new BackgroundImageWorker(ImageUtils::convertToGrayscale);
         applyEffect(worker);
     }
 
@@ -264,118 +549,3 @@ class ImageEditor extends JFrame {
         SwingUtilities.invokeLater(() -> new ImageEditor().setVisible(true));
     }
 }
-
-class ImageUtils {
-    static BufferedImage loadImage(File file) {
-        try {
-            return ImageIO.read(file);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-
-    static void changeSaturation(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = image.getRGB(x, y);
-
-                float[] hsb = Color.RGBtoHSB((pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF, pixel & 0xFF, null);
-                hsb[1] *= (float) 1.5; // Modify the saturation
-
-                int rgb = Color.HSBtoRGB(hsb[0], hsb[1], hsb[2]);
-                image.setRGB(x, y, rgb);
-            }
-        }
-    }
-
-    static void convertToGrayscale(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = image.getRGB(x, y);
-
-                int gray = (int) (0.299 * ((pixel >> 16) & 0xFF) + 0.587 * ((pixel >> 8) & 0xFF) + 0.114 * (pixel & 0xFF));
-                int grayscalePixel = (gray << 16) | (gray << 8) | gray;
-
-                image.setRGB(x, y, grayscalePixel);
-            }
-        }
-    }
-
-
-    static void applyBlur(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = getBlurredPixel(image, x, y);
-                result.setRGB(x, y, pixel);
-            }
-        }
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                image.setRGB(x, y, result.getRGB(x, y));
-            }
-        }
-    }
-
-    private static int getBlurredPixel(BufferedImage image, int x, int y) {
-        int red = 0;
-        int green = 0;
-        int blue = 0;
-
-        int count = 0;
-
-        for (int i = -1; i <= 1; i++) {
-            for (int j = -1; j <= 1; j++) {
-                int newX = x + i;
-                int newY = y + j;
-
-                if (newX >= 0 && newX < image.getWidth() && newY >= 0 && newY < image.getHeight()) {
-                    int pixel = image.getRGB(newX, newY);
-
-                    red += (pixel >> 16) & 0xFF;
-                    green += (pixel >> 8) & 0xFF;
-                    blue += pixel & 0xFF;
-
-                    count++;
-                }
-            }
-        }
-
-        red /= count;
-        green /= count;
-        blue /= count;
-
-        return (red << 16) | (green << 8) | blue;
-    }
-
-    static void changeColor(BufferedImage image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = image.getRGB(x, y);
-
-                Color color = new Color(pixel);
-                int newRed = (color.getRed() + 50) % 256;
-                int newGreen = (color.getGreen() + 30) % 256;
-                int newBlue = (color.getBlue() + 20) % 256;
-
-                Color newColor = new Color(newRed, newGreen, newBlue);
-                image.setRGB(x, y, newColor.getRGB());
-            }
-        }
-    }
-}
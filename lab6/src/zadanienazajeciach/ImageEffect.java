@@ -0,0 +1,12 @@
+package zadanienazajeciach;
+
+import java.awt.image.BufferedImage;
+
+interface ImageEffect {
+    BufferedImage applyEffect(BufferedImage image);
+
+    // Rows above and below an output row the effect reads
+    default int halo() {
+        return 0;
+    }
+}
@@ -0,0 +1,35 @@
+package zadanienazajeciach;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One published version of the edited image. Its pixels are never modified after publication: writers copy
+// the image, change the copy and publish it as the next version with compare-and-set, so readers and painting
+// never need a lock.
+// Versions derived from one another through edits share a lineage; loading an image starts a new one, so a
+// writer that lost the compare-and-set can tell whether it may redo its edit on the newer version.
+final class ImageSnapshot {
+
+    private static final AtomicLong LINEAGES = new AtomicLong();
+
+    final BufferedImage image;
+    final long version;
+    final long lineage;
+
+    private ImageSnapshot(BufferedImage image, long version, long lineage) {
+        this.image = image;
+        this.version = version;
+        this.lineage = lineage;
+    }
+
+    static ImageSnapshot next(ImageSnapshot previous, BufferedImage image) {
+        if (previous == null) {
+            return loaded(null, image);
+        }
+        return new ImageSnapshot(image, previous.version + 1, previous.lineage);
+    }
+
+    static ImageSnapshot loaded(ImageSnapshot previous, BufferedImage image) {
+        return new ImageSnapshot(image, previous == null ? 1 : previous.version + 1, LINEAGES.incrementAndGet());
+    }
+}
@@ -0,0 +1,37 @@
+package zadanienazajeciach;
+
+import imageutils.EffectPipeline;
+
+import java.awt.image.BufferedImage;
+
+class PipelineEffect implements ImageEffect {
+
+    private final EffectPipeline pipeline;
+
+    PipelineEffect(EffectPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    static PipelineEffect of(ImageEffect... effects) {
+        EffectPipeline pipeline = new EffectPipeline();
+        for (ImageEffect effect : effects) {
+            if (effect instanceof PointEffect) {
+                pipeline.then(((PointEffect) effect).operation());
+            } else {
+                pipeline.thenBarrier(effect::applyEffect, effect.halo());
+            }
+        }
+        return new PipelineEffect(pipeline);
+    }
+
+    @Override
+    public BufferedImage applyEffect(BufferedImage image) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        return pipeline.apply(image, result);
+    }
+
+    @Override
+    public int halo() {
+        return pipeline.halo();
+    }
+}
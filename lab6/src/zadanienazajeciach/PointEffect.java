@@ -0,0 +1,16 @@
+package zadanienazajeciach;
+
+import imageutils.PointOperation;
+
+import java.awt.image.BufferedImage;
+
+// Effects that only look at one pixel at a time; a PipelineEffect fuses a chain of them into one pass
+abstract class PointEffect implements ImageEffect {
+
+    abstract PointOperation operation();
+
+    @Override
+    public BufferedImage applyEffect(BufferedImage image) {
+        return PipelineEffect.of(this).applyEffect(image);
+    }
+}
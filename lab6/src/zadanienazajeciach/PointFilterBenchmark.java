@@ -0,0 +1,104 @@
+package zadanienazajeciach;
+
+import imageutils.BandExecutor;
+import imageutils.EffectPipeline;
+import imageutils.ImageUtils;
+import imageutils.LookupTables;
+import imageutils.PointOperation;
+import imageutils.SimdKernels;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+// Compares the table driven point filters with the per-pixel arithmetic they replaced, and with the SIMD
+// kernels when those are available (see SimdKernels for the --add-modules flags they need).
+// Run with -Dimageutils.parallelism=1 to compare single core throughput.
+class PointFilterBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private static final PointOperation ARITHMETIC_CHANGE_COLOR = pixel -> {
+        Color color = new Color(pixel);
+        int newRed = (color.getRed() + 50) % 256;
+        int newGreen = (color.getGreen() + 30) % 256;
+        int newBlue = (color.getBlue() + 20) % 256;
+
+        return new Color(newRed, newGreen, newBlue).getRGB();
+    };
+
+    private static final PointOperation ARITHMETIC_GRAYSCALE = pixel -> {
+        int gray = (int) (0.299 * ((pixel >> 16) & 0xFF) + 0.587 * ((pixel >> 8) & 0xFF) + 0.114 * (pixel & 0xFF));
+        return (gray << 16) | (gray << 8) | gray;
+    };
+
+    private static final PointOperation ARITHMETIC_INVERT = rgb -> {
+        int alpha = (rgb >> 24) & 0xFF;
+        int red = 255 - ((rgb >> 16) & 0xFF);
+        int green = 255 - ((rgb >> 8) & 0xFF);
+        int blue = 255 - (rgb & 0xFF);
+
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    };
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(42);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = random.nextInt();
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+
+        // The editor runs every filter through the same pipeline loop, so warm all of them up first;
+        // measuring one filter alone would let the JIT inline it into that loop and hide the per-pixel call
+        PointOperation[] all = {ARITHMETIC_CHANGE_COLOR, ARITHMETIC_GRAYSCALE, ARITHMETIC_INVERT,
+                ImageUtils.changeColor(), ImageUtils.grayscale(), LookupTables.invert(),
+                LookupTables.scalar(ImageUtils.changeColor()), LookupTables.scalar(ImageUtils.grayscale()),
+                LookupTables.scalar(LookupTables.invert())};
+        for (PointOperation operation : all) {
+            measure(image, operation);
+        }
+
+        SimdKernels simd = SimdKernels.available();
+        System.out.printf("%dx%d, parallelism %d, %s%n", width, height, BandExecutor.getParallelism(),
+                simd == null ? "no SIMD kernels" : simd.describe());
+        compare("changeColor", image, "arithmetic", ARITHMETIC_CHANGE_COLOR, "lut", LookupTables.scalar(ImageUtils.changeColor()));
+        compare("grayscale", image, "arithmetic", ARITHMETIC_GRAYSCALE, "lut", LookupTables.scalar(ImageUtils.grayscale()));
+        compare("invert", image, "arithmetic", ARITHMETIC_INVERT, "lut", LookupTables.scalar(LookupTables.invert()));
+        if (simd != null) {
+            compare("changeColor", image, "lut", LookupTables.scalar(ImageUtils.changeColor()), "simd", ImageUtils.changeColor());
+            compare("grayscale", image, "lut", LookupTables.scalar(ImageUtils.grayscale()), "simd", ImageUtils.grayscale());
+            compare("invert", image, "lut", LookupTables.scalar(LookupTables.invert()), "simd", LookupTables.invert());
+        }
+    }
+
+    private static void compare(String name, BufferedImage image, String beforeName, PointOperation before,
+                                String afterName, PointOperation after) {
+        double beforeMs = measure(image, before);
+        double afterMs = measure(image, after);
+        System.out.printf("%-12s %10s %8.2f ms   %4s %8.2f ms   speedup %.2fx%n",
+                name, beforeName, beforeMs, afterName, afterMs, beforeMs / afterMs);
+    }
+
+    private static double measure(BufferedImage image, PointOperation operation) {
+        BufferedImage target = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        EffectPipeline pipeline = EffectPipeline.point(operation);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            pipeline.apply(image, target);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            pipeline.apply(image, target);
+        }
+        return (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+    }
+}
@@ -0,0 +1,149 @@
+package zadanienazajeciach;
+
+import imageutils.EditHistory;
+import imageutils.ImageUtils;
+import imageutils.StrokeRenderer;
+import imageutils.TiledViewport;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// A brush stroke drawn over a published snapshot without copying it. A tile of the snapshot is copied the
+// first time the stroke draws on it, and the viewport shows the copies over the snapshot, so a press costs
+// nothing and a stroke holds only the tiles it touched. The full image is put together when the stroke is
+// committed, off the EDT.
+// A stroke started while the previous one is still being committed is layered over it instead of over the
+// snapshot, so it starts from what is on screen.
+final class StrokeLayer implements StrokeRenderer.Canvas, TiledViewport.TileSource {
+
+    private static final int TILE_SIZE = EditHistory.TILE_SIZE;
+
+    // The snapshot the bottom layer was drawn over
+    final ImageSnapshot origin;
+    final List<Point> points = new ArrayList<>();
+    final Color color;
+    final int brushSize;
+    // Published when this layer was committed as it is; a layer over it matches that snapshot
+    volatile ImageSnapshot committed;
+
+    private final StrokeLayer below;
+    private final BufferedImage base;
+    private final int tilesAcross;
+    // Drawn on the EDT until the stroke ends, read by the committing thread after that
+    private final BufferedImage[] tiles;
+    private final Graphics2D[] graphics;
+
+    StrokeLayer(ImageSnapshot origin, StrokeLayer below, Point start, Color color, int brushSize) {
+        this.origin = below != null ? below.origin : origin;
+        this.below = below;
+        this.base = this.origin.image;
+        this.color = color;
+        this.brushSize = brushSize;
+        this.tilesAcross = (base.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new BufferedImage[tilesAcross * ((base.getHeight() + TILE_SIZE - 1) / TILE_SIZE)];
+        this.graphics = new Graphics2D[tiles.length];
+        points.add(start);
+    }
+
+    // The snapshot this layer's pixels outside its own tiles are equal to, or null if nothing is published
+    // that still matches them
+    ImageSnapshot expectedBase() {
+        return below == null ? origin : below.committed;
+    }
+
+    @Override
+    public void draw(Rectangle area, Consumer<Graphics2D> painter) {
+        Rectangle clipped = area.intersection(new Rectangle(0, 0, base.getWidth(), base.getHeight()));
+        if (clipped.isEmpty()) {
+            return;
+        }
+        for (int row = clipped.y / TILE_SIZE; row <= (clipped.y + clipped.height - 1) / TILE_SIZE; row++) {
+            for (int column = clipped.x / TILE_SIZE; column <= (clipped.x + clipped.width - 1) / TILE_SIZE; column++) {
+                int tile = row * tilesAcross + column;
+                if (graphics[tile] == null) {
+                    tiles[tile] = copyTile(tile);
+                    graphics[tile] = tiles[tile].createGraphics();
+                    graphics[tile].translate(-column * TILE_SIZE, -row * TILE_SIZE);
+                }
+                painter.accept(graphics[tile]);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        for (int tile = 0; tile < graphics.length; tile++) {
+            if (graphics[tile] != null) {
+                graphics[tile].dispose();
+                graphics[tile] = null;
+            }
+        }
+    }
+
+    // The committed image when target is expectedBase(): target with this layer's tiles, which were copied
+    // from the same pixels before being drawn on
+    BufferedImage materialize(BufferedImage target) {
+        BufferedImage image = ImageUtils.copy(target);
+        for (int tile = 0; tile < tiles.length; tile++) {
+            if (tiles[tile] != null) {
+                image.getRaster().setRect(tile % tilesAcross * TILE_SIZE, tile / tilesAcross * TILE_SIZE, tiles[tile].getRaster());
+            }
+        }
+        return image;
+    }
+
+    private BufferedImage copyTile(int tile) {
+        for (StrokeLayer layer = below; layer != null; layer = layer.below) {
+            if (layer.tiles[tile] != null) {
+                return ImageUtils.copy(layer.tiles[tile]);
+            }
+        }
+        int x = tile % tilesAcross * TILE_SIZE;
+        int y = tile / tilesAcross * TILE_SIZE;
+        WritableRaster raster = base.getColorModel().createCompatibleWritableRaster(
+                Math.min(TILE_SIZE, base.getWidth() - x), Math.min(TILE_SIZE, base.getHeight() - y));
+        raster.setRect(-x, -y, base.getRaster());
+        return new BufferedImage(base.getColorModel(), raster, base.isAlphaPremultiplied(), null);
+    }
+
+    @Override
+    public int getWidth() {
+        return base.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return base.getHeight();
+    }
+
+    @Override
+    public int getTransparency() {
+        return base.getTransparency();
+    }
+
+    @Override
+    public void drawArea(Graphics2D g, Rectangle area) {
+        g.drawImage(base, 0, 0, area.width, area.height, area.x, area.y, area.x + area.width, area.y + area.height, null);
+        for (int row = area.y / TILE_SIZE; row <= (area.y + area.height - 1) / TILE_SIZE; row++) {
+            for (int column = area.x / TILE_SIZE; column <= (area.x + area.width - 1) / TILE_SIZE; column++) {
+                BufferedImage tile = top(row * tilesAcross + column);
+                if (tile != null) {
+                    g.drawImage(tile, column * TILE_SIZE - area.x, row * TILE_SIZE - area.y, null);
+                }
+            }
+        }
+    }
+
+    private BufferedImage top(int tile) {
+        for (StrokeLayer layer = this; layer != null; layer = layer.below) {
+            if (layer.tiles[tile] != null) {
+                return layer.tiles[tile];
+            }
+        }
+        return null;
+    }
+}